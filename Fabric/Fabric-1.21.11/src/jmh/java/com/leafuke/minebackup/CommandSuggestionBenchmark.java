@@ -0,0 +1,48 @@
+package com.leafuke.minebackup;
+
+import com.leafuke.minebackup.knotlink.QueryResponse;
+import com.leafuke.minebackup.standin.QueryScript;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在大型备份列表上过滤补全建议的开销（响应内容与替身服务器的 LIST_BACKUPS 应答一致）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommandSuggestionBenchmark {
+    private static final String COMMAND_PREFIX = "mb restore 1 0 ";
+
+    @Param({"100", "10000"})
+    public int entries;
+
+    // 空前缀会建议全部条目，"backup_12" 只匹配少数条目
+    @Param({"", "backup_12"})
+    public String prefix;
+
+    private QueryResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        response = QueryResponse.of(QueryScript.listPayload(entries, 40));
+    }
+
+    @Benchmark
+    public Suggestions filter() {
+        SuggestionsBuilder builder = new SuggestionsBuilder(COMMAND_PREFIX + prefix, COMMAND_PREFIX.length());
+        Command.addMatchingSuggestions(response, prefix, false, builder);
+        return builder.build();
+    }
+}
@@ -0,0 +1,118 @@
+package com.leafuke.minebackup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 多维度世界保存时的刷盘阶段：逐个维度写入并刷盘（原先的 /mb save）与各维度并发刷盘（SaveCoordinator）。
+ * 每个维度模拟一个区域文件目录，每次保存向若干区域文件写入区块大小的数据后 force 到磁盘；
+ * 服务器线程上的序列化两种方式相同，这里不计入。实际服务器上的耗时见 /mb save 输出的各维度耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DimensionFlushBenchmark {
+    // 一个区块写入约占 2 个 4KB 扇区
+    private static final int CHUNK_BYTES = 8 * 1024;
+    private static final int REGIONS_PER_DIMENSION = 4;
+
+    // 主世界、下界、末地与若干模组维度
+    @Param({"3", "8"})
+    public int dimensions;
+
+    @Param({"64"})
+    public int chunksPerDimension;
+
+    private Path root;
+    private FileChannel[][] regions;
+    private ExecutorService pool;
+    private final ByteBuffer template = ByteBuffer.allocateDirect(CHUNK_BYTES);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("minebackup-flush");
+        regions = new FileChannel[dimensions][REGIONS_PER_DIMENSION];
+        for (int d = 0; d < dimensions; d++) {
+            Path dir = Files.createDirectories(root.resolve("dim" + d).resolve("region"));
+            for (int r = 0; r < REGIONS_PER_DIMENSION; r++) {
+                regions[d][r] = FileChannel.open(dir.resolve("r." + r + ".0.mca"),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        }
+        byte[] noise = new byte[CHUNK_BYTES];
+        ThreadLocalRandom.current().nextBytes(noise);
+        template.put(noise).flip();
+        pool = Executors.newFixedThreadPool(Math.min(dimensions, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        for (FileChannel[] dimension : regions) {
+            for (FileChannel channel : dimension) {
+                channel.close();
+            }
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void sequential() throws IOException {
+        for (int d = 0; d < dimensions; d++) {
+            flushDimension(d);
+        }
+    }
+
+    @Benchmark
+    public void parallel() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            int dimension = d;
+            futures[d] = CompletableFuture.runAsync(() -> {
+                try {
+                    flushDimension(dimension);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, pool);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    private void flushDimension(int dimension) throws IOException {
+        FileChannel[] files = regions[dimension];
+        for (int i = 0; i < chunksPerDimension; i++) {
+            FileChannel channel = files[i % files.length];
+            channel.write(template.duplicate(), (long) (i / files.length) * CHUNK_BYTES);
+        }
+        for (FileChannel channel : files) {
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.leafuke.minebackup;
+
+import com.leafuke.minebackup.knotlink.KnotLinkEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 广播事件的解析与分发开销。只读取个别字段的解析与分发见 knotlink.EventDispatchBenchmark。
+ * 分发只使用不需要运行中服务器的事件类型（会话开始、未知事件），测量的是解析与分支判断本身。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventPipelineBenchmark {
+    private static final String[] PAYLOADS = {
+            "event=backup_success;config=1;world=world;file=world_2024-05-01_12-00-00.7z",
+            "event=backup_started;config=1;world=world",
+            "event=pre_hot_backup;config=1;world=world;features=mux,batch",
+            "event=handshake;version=1.9.0;min_mod_version=1.0.0;features=mux,batch",
+            "event=backup_failed;config=1;world=world;error=DISK_FULL",
+    };
+    private static final String[] DISPATCH_PAYLOADS = {
+            "event=game_session_start;world=world",
+            "event=backup_progress;world=world;percent=42",
+            "event=unknown_event;world=world;file=a.7z",
+    };
+
+    private final MineBackup mod = new MineBackup();
+    private final KnotLinkEvent view = new KnotLinkEvent();
+    private int index;
+
+    // 解析后复制为独立的字段表，相当于旧版 parsePayload 的完整开销
+    @Benchmark
+    public Map<String, String> parsePayload() {
+        index = (index + 1) % PAYLOADS.length;
+        return view.reset(PAYLOADS[index]).toMap();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        index = (index + 1) % DISPATCH_PAYLOADS.length;
+        mod.handleBroadcastEvent(DISPATCH_PAYLOADS[index]);
+    }
+}
@@ -0,0 +1,117 @@
+package com.leafuke.minebackup.knotlink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文本协议与 bin1 二进制编码的解码开销对比（纯内存，不经过套接字）。
+ * events：一段粘连在一起的事件流经过分帧并解析为字段表；
+ * reply：一条列表响应逐条遍历全部条目。
+ * 配合 build.gradle 中默认开启的 gc profiler 可以同时对比每条消息的分配量。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CodecBenchmark {
+    private static final int EVENTS = 256;
+    private static final String[] EVENT_TEMPLATES = {
+            "event=backup_success;config=1;world=world;file=world_2024-05-01_12-00-{i}.7z",
+            "event=backup_started;config=1;world=world",
+            "event=pre_hot_backup;config=1;world=world",
+            "event=backup_failed;config=1;world=world;error=DISK_FULL",
+    };
+
+    @Param({"text", "binary"})
+    public String codec;
+
+    // 列表响应的条目数
+    @Param({"10", "5000"})
+    public int entries;
+
+    private byte[] eventStream;
+    private byte[] reply;
+    private final KnotLinkFrameDecoder decoder = new KnotLinkFrameDecoder();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean binary = codec.equals("binary");
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < EVENTS; i++) {
+            String event = EVENT_TEMPLATES[i % EVENT_TEMPLATES.length].replace("{i}", Integer.toString(i));
+            stream.writeBytes(binary
+                    ? KnotLinkBinaryCodec.encodeEvent(parseText(event))
+                    : event.getBytes(StandardCharsets.UTF_8));
+        }
+        eventStream = stream.toByteArray();
+
+        StringBuilder text = new StringBuilder("OK:");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                text.append(';');
+            }
+            text.append("[Full][2024-05-01_12-00-00]world_").append(i).append(".7z");
+        }
+        QueryResponse response = QueryResponse.of(text.toString());
+        reply = binary ? KnotLinkBinaryCodec.encodeReply(response) : text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void events(Blackhole blackhole) {
+        KnotLinkFrameDecoder.FrameListener listener = new KnotLinkFrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(String frame) {
+                blackhole.consume(parseText(frame));
+            }
+
+            @Override
+            public void onBinaryFrame(ByteBuffer body) {
+                blackhole.consume(KnotLinkBinaryCodec.decodeEvent(body));
+            }
+        };
+        decoder.decode(ByteBuffer.wrap(eventStream), listener);
+        // 文本流的最后一条事件要等静默刷新才能成帧
+        decoder.flush(listener);
+    }
+
+    @Benchmark
+    public int reply(Blackhole blackhole) {
+        QueryResponse response = QueryResponse.wrap(reply, reply.length);
+        int count = 0;
+        for (String entry : response.entries()) {
+            blackhole.consume(entry);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 旧版 MineBackup.parsePayload 的文本拆分方式
+     */
+    private static Map<String, String> parseText(String payload) {
+        Map<String, String> dataMap = new HashMap<>();
+        for (String pair : payload.split(";")) {
+            String[] keyValue = pair.split("=", 2);
+            if (keyValue.length == 2) {
+                dataMap.put(keyValue[0].trim(), keyValue[1].trim());
+            }
+        }
+        return dataMap;
+    }
+}
@@ -0,0 +1,90 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.leafuke.minebackup.standin.KnotLinkStandInServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大型 LIST_BACKUPS 响应的端到端延迟：查询经多路复用通道发往替身服务器，
+ * 再逐条遍历全部条目（压缩响应边解压边切分）。
+ * 每个组合结束时在输出中打印单条响应的线上字节数，用于对比压缩率。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressedReplyBenchmark {
+    private static final String APP_ID = "0x00000020";
+    private static final String SOCKET_ID = "0x00000010";
+    private static final String QUESTION = "LIST_BACKUPS 1 0";
+
+    // text：纯文本；bin1：二进制编码；deflate：二进制编码且较大的响应使用压缩
+    @Param({"text", "bin1", "deflate"})
+    public String codec;
+
+    @Param({"1000", "10000", "100000"})
+    public int entries;
+
+    private KnotLinkStandInServer server;
+    private long replyBytesBefore;
+    private long replies;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new KnotLinkStandInServer();
+        server.script().backupListReply("LIST_BACKUPS", entries);
+        server.start();
+        KnotLinkTransports.configure("");
+        KnotLinkFeatures.reset();
+
+        String features = switch (codec) {
+            case "bin1" -> KnotLinkFeatures.MUX + "," + KnotLinkFeatures.BINARY;
+            case "deflate" -> KnotLinkFeatures.MUX + "," + KnotLinkFeatures.BINARY + "," + KnotLinkFeatures.DEFLATE;
+            default -> KnotLinkFeatures.MUX;
+        };
+        // 与真实握手一样，替身服务器在收到 HANDSHAKE_RESPONSE 后才切换编码
+        QueryResponse handshake = OpenSocketQuerier.queryResponse(APP_ID, SOCKET_ID,
+                "HANDSHAKE_RESPONSE 1.0.0 features=" + features).join();
+        if (!handshake.isOk()) {
+            throw new IOException("Handshake with the stand-in server failed: " + handshake.asString());
+        }
+        KnotLinkFeatures.activate(features);
+        replyBytesBefore = server.getReplyBytes();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (replies > 0) {
+            System.out.printf("%n[%s, %d entries] wire bytes per reply: %d%n",
+                    codec, entries, (server.getReplyBytes() - replyBytesBefore) / replies);
+        }
+        OpenSocketQuerier.shutdown();
+        server.close();
+        KnotLinkFeatures.reset();
+    }
+
+    @Benchmark
+    public int listBackups() {
+        int count = 0;
+        try (QueryResponse response = OpenSocketQuerier.queryResponse(APP_ID, SOCKET_ID, QUESTION).join()) {
+            for (String entry : response.entries()) {
+                count += entry.length() > 0 ? 1 : 0;
+            }
+        }
+        if (count != entries) {
+            throw new IllegalStateException("Expected " + entries + " entries but got " + count);
+        }
+        replies++;
+        return count;
+    }
+}
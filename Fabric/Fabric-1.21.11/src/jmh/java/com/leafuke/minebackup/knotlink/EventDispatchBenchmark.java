@@ -0,0 +1,108 @@
+package com.leafuke.minebackup.knotlink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文本广播事件从解析到分发的开销：旧版“拆分为 HashMap + 字符串 switch”与“享元视图 + 预构建分发表”对比。
+ * 处理器只读取一两个字段或只做比较，与模组中大部分事件一致；
+ * 配合 build.gradle 中默认开启的 gc profiler，flyweight 的 gc.alloc.rate.norm 在稳定状态下应为 0。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventDispatchBenchmark {
+    private static final String[] PAYLOADS = {
+            "event=restore_finished;config=1;world=world;status=success",
+            "event=backup_progress;config=1;world=world;percent=42",
+            "event=game_session_end;config=1;world=world",
+            "event=backup_failed;config=1;world=world;error=DISK_FULL",
+            "event=unknown_event;world=world;file=a.7z",
+    };
+
+    private final KnotLinkEvent view = new KnotLinkEvent();
+    private KnotLinkEventDispatcher dispatcher;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        Map<String, KnotLinkEventDispatcher.Handler> table = new HashMap<>();
+        table.put("restore_finished", event -> blackhole.consume(
+                !event.has("status") || event.valueEquals("status", "success")));
+        table.put("backup_progress", event -> blackhole.consume(event.getInt("percent", -1)));
+        table.put("game_session_end", event -> blackhole.consume(event.isBlank("world")));
+        table.put("backup_failed", event -> {
+            blackhole.consume(event.isBlank("world"));
+            blackhole.consume(event.valueEquals("error", "DISK_FULL"));
+        });
+        dispatcher = new KnotLinkEventDispatcher(table);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(5)
+    public void mapAndSwitch() {
+        for (String payload : PAYLOADS) {
+            Map<String, String> event = parseToMap(payload);
+            String type = event.get("event");
+            if (type == null) {
+                continue;
+            }
+            switch (type) {
+                case "restore_finished" -> blackhole.consume("success".equals(event.getOrDefault("status", "success")));
+                case "backup_progress" -> blackhole.consume(parseInt(event.get("percent")));
+                case "game_session_end" -> blackhole.consume(isBlank(event.get("world")));
+                case "backup_failed" -> {
+                    blackhole.consume(isBlank(event.get("world")));
+                    blackhole.consume("DISK_FULL".equals(event.get("error")));
+                }
+                default -> { }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(5)
+    public void flyweight() {
+        for (String payload : PAYLOADS) {
+            dispatcher.dispatch(view.reset(payload));
+        }
+    }
+
+    /**
+     * 旧版 MineBackup.parsePayload 的文本拆分方式
+     */
+    private static Map<String, String> parseToMap(String payload) {
+        Map<String, String> dataMap = new HashMap<>();
+        for (String pair : payload.split(";")) {
+            String[] keyValue = pair.split("=", 2);
+            if (keyValue.length == 2) {
+                dataMap.put(keyValue[0].trim(), keyValue[1].trim());
+            }
+        }
+        return dataMap;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value == null ? -1 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,83 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.leafuke.minebackup.standin.KnotLinkStandInServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenSocketQuerier 一次查询往返的吞吐与延迟分布（p99 见 SampleTime 模式的输出），
+ * 分别测量 TCP / Unix 域套接字两种传输，以及连接池 / 多路复用两种查询方式。
+ */
+@State(Scope.Benchmark)
+public class QueryRoundTripBenchmark {
+    private static final String APP_ID = "0x00000020";
+    private static final String SOCKET_ID = "0x00000010";
+
+    @Param({"tcp", "unix"})
+    public String transport;
+
+    @Param({"pooled", "mux"})
+    public String mode;
+
+    // LIST_BACKUPS 响应的条目数，用于对比小响应与大响应
+    @Param({"10", "5000"})
+    public int entries;
+
+    private KnotLinkStandInServer server;
+    private Path socketDir;
+    private String question;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new KnotLinkStandInServer();
+        server.script().listReply("LIST_BACKUPS", entries, 40);
+        if ("unix".equals(transport)) {
+            socketDir = Files.createTempDirectory("knotlink-bench");
+            server.start(socketDir);
+            KnotLinkTransports.configure(socketDir.toString());
+        } else {
+            server.start();
+            KnotLinkTransports.configure("");
+        }
+        KnotLinkFeatures.reset();
+        if ("mux".equals(mode)) {
+            KnotLinkFeatures.activate(KnotLinkFeatures.MUX);
+        }
+        question = "LIST_BACKUPS 1 0";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        OpenSocketQuerier.shutdown();
+        server.close();
+        KnotLinkFeatures.reset();
+        KnotLinkTransports.configure("");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public QueryResponse roundTrip() {
+        return OpenSocketQuerier.queryResponse(APP_ID, SOCKET_ID, question).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public QueryResponse roundTripLatency() {
+        return OpenSocketQuerier.queryResponse(APP_ID, SOCKET_ID, question).join();
+    }
+}
@@ -0,0 +1,96 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.leafuke.minebackup.standin.KnotLinkStandInServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TcpClient 接收广播事件的吞吐：替身服务器连续发送一批事件，
+ * 测量客户端完成分帧并交付全部事件所需的时间（结果按单条事件折算）。
+ * 每条交付的事件都会检查：事件被合并或拆开时基准直接失败，而不是给出没有意义的结果。
+ *
+ * glued 与主程序一致，事件之间没有分隔符，最后一条要等客户端的静默刷新才能交付，
+ * 每批事件的耗时包含一次刷新延迟；newline 在每条事件末尾加换行，只测分帧本身。
+ */
+@State(Scope.Benchmark)
+public class TcpClientReceiveBenchmark {
+    private static final int BURST = 1000;
+
+    // 单条事件的大致字节数
+    @Param({"64", "1024"})
+    public int eventSize;
+
+    @Param({"glued", "newline"})
+    public String framing;
+
+    private KnotLinkStandInServer server;
+    private TcpClient client;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private volatile String lastMalformed;
+    private String template;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        server = new KnotLinkStandInServer().start();
+        client = new TcpClient();
+        client.setDataReceivedListener(data -> {
+            if (!data.startsWith("event=backup_success;world=world;file=") || !data.endsWith(".7z")) {
+                malformed.incrementAndGet();
+                lastMalformed = data;
+            }
+            received.incrementAndGet();
+        });
+        if (!client.connectToServer(KnotLinkTransports.get(), KnotLinkStandInServer.SUBSCRIBER_PORT)) {
+            throw new IOException("Stand-in subscriber port is not reachable");
+        }
+        client.sendData("0x00000020-0x00000020");
+        if (!server.awaitSubscribers(1, 5, TimeUnit.SECONDS)) {
+            throw new IOException("Subscription was not registered");
+        }
+        StringBuilder file = new StringBuilder("event=backup_success;world=world;file=");
+        while (file.length() < eventSize - 8) {
+            file.append('x');
+        }
+        template = file.append("_{i}.7z").append(framing.equals("newline") ? "\n" : "").toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BURST)
+    public long receiveBurst() {
+        long target = received.get() + BURST;
+        server.burst(template, BURST, 0);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received.get() < target) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Only " + (BURST - (target - received.get())) + " of " + BURST + " events were delivered");
+            }
+            Thread.onSpinWait();
+        }
+        if (malformed.get() > 0) {
+            throw new IllegalStateException(malformed.get() + " events were merged or split, e.g. " + lastMalformed);
+        }
+        return target;
+    }
+}
@@ -1,9 +1,16 @@
 package com.leafuke.minebackup;
 
+import com.leafuke.minebackup.knotlink.BackendHealth;
+import com.leafuke.minebackup.knotlink.KnotLinkEventQueue;
+import com.leafuke.minebackup.knotlink.KnotLinkFeatures;
 import com.leafuke.minebackup.knotlink.OpenSocketQuerier;
+import com.leafuke.minebackup.knotlink.QueryResponse;
+import com.leafuke.minebackup.knotlink.SignalSubscriber;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.suggestion.Suggestions;
 import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import net.minecraft.commands.CommandSourceStack;
@@ -11,7 +18,7 @@ import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.server.MinecraftServer;
-import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.server.permissions.Permissions;
 
 import java.util.Locale;
@@ -28,8 +35,8 @@ public class Command {
     private static final String QUERIER_SOCKET_ID = "0x00000010";
     private static final long CURRENT_BACKUPS_QUERY_INTERVAL_MS = 5000L;
     private static volatile long lastCurrentBackupsQueryAtMs = 0L;
-    private static volatile String lastCurrentBackupsResponse = null;
-    private static CompletableFuture<String> currentBackupsQueryFuture = null;
+    private static volatile QueryResponse lastCurrentBackupsResponse = null;
+    private static CompletableFuture<QueryResponse> currentBackupsQueryFuture = null;
 
     /**
      * 注册所有 MineBackup 命令
@@ -38,17 +45,12 @@ public class Command {
     public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
 
         dispatcher.register(Commands.literal("mb")
-                .requires(src -> {
-                    // CommandSourceStack 可能在命令树构建时缺少 server（避免 NPE）
-                    MinecraftServer server = src.getServer();
-                    if (server == null) return false;
-                    // 单人游戏允许所有人使用，服务器需要OP权限
-                    if (!server.isDedicatedServer()) return true;
-                    return src.permissions().hasPermission(Permissions.COMMANDS_MODERATOR);
-                })
+                // 管理类子命令各自检查权限，所有玩家都可以设置自己的通知方式
+                .requires(src -> src.getServer() != null)
 
                 // 1. 本地保存指令
                 .then(Commands.literal("save")
+                        .requires(Command::canManage)
                         .executes(ctx -> {
                             saveAllWorlds(ctx.getSource());
                             return 1;
@@ -57,22 +59,24 @@ public class Command {
 
                 // 2. 查询配置列表
                 .then(Commands.literal("list_configs")
+                        .requires(Command::canManage)
                         .executes(ctx -> {
                             ctx.getSource().sendSuccess(() -> Component.translatable("minebackup.message.list_configs.start"), false);
-                            queryBackend("LIST_CONFIGS", response -> handleListConfigsResponse(ctx.getSource(), response));
+                            queryBackendResponse("LIST_CONFIGS", response -> handleListConfigsResponse(ctx.getSource(), response.asString()));
                             return 1;
                         })
                 )
 
                 // 3. 列出指定配置中的所有世界
                 .then(Commands.literal("list_worlds")
+                        .requires(Command::canManage)
                         .then(Commands.argument("config_id", IntegerArgumentType.integer())
                                 .executes(ctx -> {
                                     int configId = IntegerArgumentType.getInteger(ctx, "config_id");
                                     ctx.getSource().sendSuccess(() -> Component.translatable("minebackup.message.list_worlds.start", String.valueOf(configId)), false);
-                                    queryBackend(
+                                    queryBackendResponse(
                                             String.format("LIST_WORLDS %d", configId),
-                                            response -> handleListWorldsResponse(ctx.getSource(), response, configId)
+                                            response -> handleListWorldsResponse(ctx.getSource(), response.asString(), configId)
                                     );
                                     return 1;
                                 })
@@ -81,13 +85,14 @@ public class Command {
 
                 // 4. 列出指定世界的所有备份文件
                 .then(Commands.literal("list_backups")
+                        .requires(Command::canManage)
                         .then(Commands.argument("config_id", IntegerArgumentType.integer())
                                 .then(Commands.argument("world_index", IntegerArgumentType.integer())
                                         .executes(ctx -> {
                                             int configId = IntegerArgumentType.getInteger(ctx, "config_id");
                                             int worldIndex = IntegerArgumentType.getInteger(ctx, "world_index");
                                             ctx.getSource().sendSuccess(() -> Component.translatable("minebackup.message.list_backups.start", String.valueOf(configId), String.valueOf(worldIndex)), false);
-                                            queryBackend(
+                                            queryBackendResponse(
                                                     String.format("LIST_BACKUPS %d %d", configId, worldIndex),
                                                     response -> handleListBackupsResponse(ctx.getSource(), response, configId, worldIndex)
                                             );
@@ -99,6 +104,7 @@ public class Command {
 
                 // 5. 触发一次远程备份
                 .then(Commands.literal("backup")
+                        .requires(Command::canManage)
                         .then(Commands.argument("config_id", IntegerArgumentType.integer())
                                 .then(Commands.argument("world_index", IntegerArgumentType.integer())
                                         .executes(ctx -> executeRemoteCommand(ctx.getSource(),
@@ -118,6 +124,7 @@ public class Command {
 
                 // 6. 执行一次远程还原
                 .then(Commands.literal("restore")
+                        .requires(Command::canManage)
                         .then(Commands.argument("config_id", IntegerArgumentType.integer())
                                 .then(Commands.argument("world_index", IntegerArgumentType.integer())
                                         .then(Commands.argument("backup_file", StringArgumentType.string())
@@ -137,23 +144,26 @@ public class Command {
 
                 // 7. 快速保存并备份当前世界
                 .then(Commands.literal("quicksave")
+                        .requires(Command::canManage)
+                        // 所有维度落盘后才请求主程序备份
                         .executes(ctx -> {
                             CommandSourceStack source = ctx.getSource();
-                            saveAllWorlds(source);
-                            return executeRemoteCommand(source, "BACKUP_CURRENT");
+                            saveAllWorlds(source).thenRun(() -> executeRemoteCommand(source, "BACKUP_CURRENT"));
+                            return 1;
                         })
                         .then(Commands.argument("comment", StringArgumentType.greedyString())
                                 .executes(ctx -> {
                                     CommandSourceStack source = ctx.getSource();
-                                    saveAllWorlds(source);
-                                    return executeRemoteCommand(source,
-                                            String.format("BACKUP_CURRENT %s", StringArgumentType.getString(ctx, "comment")));
+                                    String command = String.format("BACKUP_CURRENT %s", StringArgumentType.getString(ctx, "comment"));
+                                    saveAllWorlds(source).thenRun(() -> executeRemoteCommand(source, command));
+                                    return 1;
                                 })
                         )
                 )
 
                         // 8. 快速还原当前世界指定备份
                         .then(Commands.literal("quickrestore")
+                            .requires(Command::canManage)
                             .executes(ctx -> executeRemoteCommand(ctx.getSource(), "RESTORE_CURRENT_LATEST"))
                             .then(Commands.argument("backup_file", StringArgumentType.string())
                                 .suggests((ctx, builder) -> suggestCurrentBackupFiles(builder))
@@ -164,6 +174,7 @@ public class Command {
 
                 // 8. 启动远程自动备份
                 .then(Commands.literal("auto")
+                        .requires(Command::canManage)
                         .then(Commands.argument("config_id", IntegerArgumentType.integer())
                                 .then(Commands.argument("world_index", IntegerArgumentType.integer())
                                         .then(Commands.argument("internal_time", IntegerArgumentType.integer())
@@ -186,6 +197,7 @@ public class Command {
 
                 // 9. 停止远程自动备份
                 .then(Commands.literal("stop")
+                        .requires(Command::canManage)
                         .then(Commands.argument("config_id", IntegerArgumentType.integer())
                                 .then(Commands.argument("world_index", IntegerArgumentType.integer())
                                         .executes(ctx -> {
@@ -201,6 +213,7 @@ public class Command {
 
                 // 10. 与 WorldEdit 快照联动
                 .then(Commands.literal("snap")
+                        .requires(Command::canManage)
                         .then(Commands.argument("config_id", IntegerArgumentType.integer())
                                 .then(Commands.argument("world_index", IntegerArgumentType.integer())
                                         .then(Commands.argument("backup_file", StringArgumentType.string())
@@ -221,6 +234,18 @@ public class Command {
                                 )
                         )
                 )
+
+                // 11. 查看与主程序的连接状态与延迟
+                .then(Commands.literal("status")
+                        .requires(Command::canManage)
+                        .executes(ctx -> {
+                            showStatus(ctx.getSource());
+                            return 1;
+                        })
+                )
+
+                // 12. 设置自己接收备份通知的方式
+                .then(buildNotifyCommand())
         );
 
         // 旧命令入口：提示已迁移到 /mb
@@ -244,6 +269,48 @@ public class Command {
         );
     }
 
+    /**
+     * 管理类命令的权限：单人游戏允许所有人使用，服务器需要OP权限
+     */
+    private static boolean canManage(CommandSourceStack src) {
+        // CommandSourceStack 可能在命令树构建时缺少 server（避免 NPE）
+        MinecraftServer server = src.getServer();
+        if (server == null) return false;
+        if (!server.isDedicatedServer()) return true;
+        return src.permissions().hasPermission(Permissions.COMMANDS_MODERATOR);
+    }
+
+    /**
+     * /mb notify [bossbar|actionbar|chat|off|default]：查看或设置自己接收备份通知的方式
+     */
+    private static LiteralArgumentBuilder<CommandSourceStack> buildNotifyCommand() {
+        LiteralArgumentBuilder<CommandSourceStack> notify = Commands.literal("notify")
+                .requires(CommandSourceStack::isPlayer)
+                .executes(ctx -> {
+                    ServerPlayer player = ctx.getSource().getPlayerOrException();
+                    NotificationAggregator.Mode mode = NotificationAggregator.getMode(player.getUUID());
+                    ctx.getSource().sendSuccess(() -> Component.translatable("minebackup.message.notify.current",
+                            Component.translatable("minebackup.message.notify.mode." + mode.id())), false);
+                    return 1;
+                });
+        for (NotificationAggregator.Mode mode : NotificationAggregator.Mode.values()) {
+            notify.then(Commands.literal(mode.id())
+                    .executes(ctx -> setNotificationMode(ctx.getSource(), mode)));
+        }
+        notify.then(Commands.literal("default")
+                .executes(ctx -> setNotificationMode(ctx.getSource(), null)));
+        return notify;
+    }
+
+    private static int setNotificationMode(CommandSourceStack source, NotificationAggregator.Mode mode) throws CommandSyntaxException {
+        ServerPlayer player = source.getPlayerOrException();
+        NotificationAggregator.setMode(player.getUUID(), mode);
+        NotificationAggregator.Mode effective = NotificationAggregator.getMode(player.getUUID());
+        source.sendSuccess(() -> Component.translatable("minebackup.message.notify.set",
+                Component.translatable("minebackup.message.notify.mode." + effective.id())), false);
+        return 1;
+    }
+
     /**
      * 向后端发送查询请求
      * @param command 命令字符串
@@ -274,15 +341,102 @@ public class Command {
     }
 
     /**
-     * 执行本地所有维度落盘，保证远程备份前数据尽量一致。
+     * 向后端发送只读查询（LIST_*），回调收到原始响应；同一 tick 内的查询可能被合并发送
+     * @param command 命令字符串
+     * @param callback 响应回调
+     */
+    private static void queryBackendResponse(String command, java.util.function.Consumer<QueryResponse> callback) {
+        OpenSocketQuerier.queryBatched(QUERIER_APP_ID, QUERIER_SOCKET_ID, command)
+            .exceptionally(ex -> {
+                MineBackup.LOGGER.error("与 MineBackup 主程序通信异常: {}", ex.getMessage());
+                return QueryResponse.of("ERROR:COMMUNICATION_FAILED");
+            })
+            .thenAccept(resp -> {
+                try {
+                    callback.accept(resp);
+                } catch (Exception e) {
+                    MineBackup.LOGGER.error("处理后端响应时发生异常: {}", e.getMessage());
+                }
+            });
+    }
+
+    /**
+     * 保存所有维度：服务器线程上依次序列化，各维度并行刷盘，全部落盘后报告每个维度的耗时
+     * @return 全部落盘并报告完毕后在服务器线程上完成，保存失败时以异常完成
      */
-    private static void saveAllWorlds(CommandSourceStack source) {
+    private static CompletableFuture<Void> saveAllWorlds(CommandSourceStack source) {
         MinecraftServer server = source.getServer();
         source.sendSuccess(() -> Component.translatable("minebackup.message.save.start"), true);
-        for (ServerLevel level : server.getAllLevels()) {
-            level.save(null, true, false);
+        long begin = System.nanoTime();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        SaveCoordinator.saveAll(server).whenComplete((timings, error) -> server.execute(() -> {
+            if (error != null) {
+                MineBackup.LOGGER.error("[MineBackup] 保存世界失败", error);
+                source.sendFailure(Component.translatable("minebackup.message.save.failed"));
+                done.completeExceptionally(error);
+                return;
+            }
+            for (SaveCoordinator.DimensionTiming timing : timings) {
+                String serialize = formatNanosMillis(timing.serializeNanos());
+                String flush = formatNanosMillis(timing.flushNanos());
+                MineBackup.LOGGER.info("[MineBackup] 维度 {} 保存耗时：序列化 {}ms，刷盘 {}ms", timing.dimension(), serialize, flush);
+                source.sendSuccess(() -> Component.translatable("minebackup.message.save.timing",
+                        timing.dimension(), serialize, flush), false);
+            }
+            MineBackup.LOGGER.info("[MineBackup] 保存 {} 个维度共耗时 {}ms", timings.size(), formatNanosMillis(System.nanoTime() - begin));
+            source.sendSuccess(() -> Component.translatable("minebackup.message.save.success"), true);
+            done.complete(null);
+        }));
+        return done;
+    }
+
+    private static String formatNanosMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * 显示后端健康状态：熔断器状态、查询延迟、事件订阅与心跳（只读取本地统计，不发送查询）
+     * @param source 命令来源
+     */
+    private static void showStatus(CommandSourceStack source) {
+        BackendHealth health = OpenSocketQuerier.health();
+        MutableComponent text = Component.translatable("minebackup.message.status.title");
+        text.append("\n").append(Component.translatable("minebackup.message.status.circuit",
+                Component.translatable("minebackup.message.status.state." + health.getState().name().toLowerCase(Locale.ROOT)),
+                health.getConsecutiveFailures()));
+
+        if (health.getLastLatencyMicros() < 0) {
+            text.append("\n").append(Component.translatable("minebackup.message.status.latency.none"));
+        } else {
+            text.append("\n").append(Component.translatable("minebackup.message.status.latency",
+                    formatMicrosMillis(health.getLastLatencyMicros()),
+                    formatMicrosMillis(health.getAverageLatencyMicros()),
+                    formatMicrosMillis(health.getMaxLatencyMicros())));
         }
-        source.sendSuccess(() -> Component.translatable("minebackup.message.save.success"), true);
+        text.append("\n").append(Component.translatable("minebackup.message.status.queries",
+                health.getSuccesses(), health.getFailures(), health.getRejected()));
+
+        SignalSubscriber subscriber = MineBackup.getKnotLinkSubscriber();
+        text.append("\n").append(Component.translatable("minebackup.message.status.subscriber",
+                subscriber != null ? subscriber.getState().name() : SignalSubscriber.State.STOPPED.name(),
+                subscriber != null ? subscriber.getReconnectCount() : 0));
+
+        long heartbeatAgeMs = health.getMillisSinceLastHeartbeat();
+        if (heartbeatAgeMs < 0) {
+            text.append("\n").append(Component.translatable("minebackup.message.status.heartbeat.none"));
+        } else {
+            text.append("\n").append(Component.translatable("minebackup.message.status.heartbeat", heartbeatAgeMs / 1000));
+        }
+        KnotLinkEventQueue events = MineBackup.getEventQueue();
+        text.append("\n").append(Component.translatable("minebackup.message.status.events",
+                events.size(), events.getProcessed(), events.getCoalesced(), events.getDropped(),
+                formatMicrosMillis(Math.max(0L, events.getAverageLagMicros())), formatMicrosMillis(events.getMaxLagMicros())));
+        text.append("\n").append(Component.translatable("minebackup.message.status.features", KnotLinkFeatures.describe()));
+        source.sendSuccess(() -> text, false);
+    }
+
+    private static String formatMicrosMillis(long micros) {
+        return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
     }
 
     /**
@@ -310,6 +464,8 @@ public class Command {
             return switch (error) {
                 case "COMMUNICATION_FAILED" -> Component.translatable("minebackup.message.communication_failed");
                 case "NO_RESPONSE" -> Component.translatable("minebackup.message.no_response");
+                case "BACKEND_BUSY" -> Component.translatable("minebackup.message.backend_busy");
+                case "BACKEND_OFFLINE" -> Component.translatable("minebackup.message.backend_offline");
                 default -> error;
             };
         }
@@ -387,24 +543,24 @@ public class Command {
     /**
      * 处理 LIST_BACKUPS 响应
      */
-    private static void handleListBackupsResponse(CommandSourceStack source, String response, int configId, int worldIndex) {
+    private static void handleListBackupsResponse(CommandSourceStack source, QueryResponse response, int configId, int worldIndex) {
         source.getServer().execute(() -> {
-            if (response == null || !response.startsWith("OK:")) {
-                Object errorDetail = localizeErrorDetail(response);
+            if (!response.isOk()) {
+                Object errorDetail = localizeErrorDetail(response.asString());
                 source.sendFailure(Component.translatable("minebackup.message.list_backups.fail", errorDetail));
                 return;
             }
             MutableComponent resultText = Component.translatable("minebackup.message.list_backups.success.title", String.valueOf(configId), String.valueOf(worldIndex));
-            String data = response.substring(3);
-            if (data.isEmpty()) {
-                resultText.append(Component.translatable("minebackup.message.list_backups.empty"));
-            } else {
-                for (String file : data.split(";")) {
-                    if (!file.isEmpty()) {
-                        resultText.append(Component.translatable("minebackup.message.list_backups.success.entry", file));
-                    }
+            boolean empty = true;
+            try (response) {
+                for (String file : response.entries()) {
+                    resultText.append(Component.translatable("minebackup.message.list_backups.success.entry", file));
+                    empty = false;
                 }
             }
+            if (empty) {
+                resultText.append(Component.translatable("minebackup.message.list_backups.empty"));
+            }
             source.sendSuccess(() -> resultText, false);
         });
     }
@@ -414,21 +570,11 @@ public class Command {
      */
     private static CompletableFuture<Suggestions> suggestBackupFiles(int configId, int worldIndex, SuggestionsBuilder builder) {
         String command = String.format("LIST_BACKUPS %d %d", configId, worldIndex);
-        return OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, command)
+        return OpenSocketQuerier.queryBatched(QUERIER_APP_ID, QUERIER_SOCKET_ID, command)
                 .thenApply(response -> {
-                    if (response != null && response.startsWith("OK:")) {
-                        String data = response.substring(3);
-                        String[] files = data.split(";");
-                        String remaining = builder.getRemaining();
-                        String remLower = remaining == null ? "" : remaining.toLowerCase(Locale.ROOT);
-                        for (String file : files) {
-                            if (!file.isEmpty()) {
-                                // 不要强制加单引号，直接建议文件名
-                                if (file.toLowerCase(Locale.ROOT).startsWith(remLower)) {
-                                    builder.suggest(file);
-                                }
-                            }
-                        }
+                    // 不要强制加单引号，直接建议文件名
+                    try (response) {
+                        addMatchingSuggestions(response, builder.getRemaining(), false, builder);
                     }
                     return builder.build();
                 })
@@ -442,20 +588,14 @@ public class Command {
     private static CompletableFuture<Suggestions> suggestCurrentBackupFiles(SuggestionsBuilder builder) {
         return queryCurrentBackupsThrottled()
                 .thenApply(response -> {
-                    if (response != null && response.startsWith("OK:")) {
-                        String data = response.substring(3);
-                        String[] files = data.split(";");
+                    if (response != null) {
                         String remaining = builder.getRemaining();
                         String normalized = remaining == null ? "" : remaining;
                         if (!normalized.isEmpty() && (normalized.charAt(0) == '\'' || normalized.charAt(0) == '"')) {
                             normalized = normalized.substring(1);
                         }
-                        String remLower = normalized.toLowerCase(Locale.ROOT);
-                        for (String file : files) {
-                            if (!file.isEmpty() && file.toLowerCase(Locale.ROOT).startsWith(remLower)) {
-                                builder.suggest("'" + file.replace("'", "\\'") + "'");
-                            }
-                        }
+                        // 缓存的响应会被多次补全共用，不在这里关闭；遍历完成或出错时解压器会自动释放
+                        addMatchingSuggestions(response, normalized, true, builder);
                     }
                     return builder.build();
                 })
@@ -465,7 +605,20 @@ public class Command {
                 });
     }
 
-    private static CompletableFuture<String> queryCurrentBackupsThrottled() {
+    /**
+     * 把列表响应中以 prefix 开头（忽略大小写）的条目加入补全建议
+     * @param quoted 是否用单引号包裹建议（文件名中可能含空格）
+     */
+    static void addMatchingSuggestions(QueryResponse response, String prefix, boolean quoted, SuggestionsBuilder builder) {
+        String remLower = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        for (String file : response.entries()) {
+            if (file.toLowerCase(Locale.ROOT).startsWith(remLower)) {
+                builder.suggest(quoted ? "'" + file.replace("'", "\\'") + "'" : file);
+            }
+        }
+    }
+
+    private static CompletableFuture<QueryResponse> queryCurrentBackupsThrottled() {
         synchronized (Command.class) {
             long now = System.currentTimeMillis();
             if (now - lastCurrentBackupsQueryAtMs < CURRENT_BACKUPS_QUERY_INTERVAL_MS) {
@@ -476,7 +629,7 @@ public class Command {
             }
 
             lastCurrentBackupsQueryAtMs = now;
-            CompletableFuture<String> future = OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, "LIST_BACKUPS_CURRENT");
+            CompletableFuture<QueryResponse> future = OpenSocketQuerier.queryBatched(QUERIER_APP_ID, QUERIER_SOCKET_ID, "LIST_BACKUPS_CURRENT");
             if (future == null) {
                 return CompletableFuture.completedFuture(lastCurrentBackupsResponse);
             }
@@ -484,7 +637,7 @@ public class Command {
             currentBackupsQueryFuture = future.handle((response, ex) -> {
                 synchronized (Command.class) {
                     currentBackupsQueryFuture = null;
-                    if (ex == null && response != null && response.startsWith("OK:")) {
+                    if (ex == null && response != null && response.isOk()) {
                         lastCurrentBackupsResponse = response;
                     }
                 }
@@ -14,6 +14,22 @@ public class Config {
     private static int configId = -1;
     private static int worldIndex = -1;
     private static int internalTime = -1;
+    // KnotLink 批量查询的收集窗口（毫秒），没有服务器 tick 驱动时使用
+    private static long batchWindowMs = 50L;
+    // 每个服务器 tick 最多处理的提示类广播事件数，控制事件不受此限制
+    private static int eventsPerTick = 8;
+    // 未自行选择的玩家使用的备份通知方式：bossbar / actionbar / chat / off
+    private static String notificationMode = "bossbar";
+    // 每位玩家每分钟最多收到的备份通知更新数
+    private static int notificationsPerMinute = 6;
+    // KnotLink Unix 域套接字所在目录，留空时使用 127.0.0.1 的 TCP 端口
+    private static String knotLinkSocketDir = "";
+    // 热备份前的保存方式：blocking（单个 tick 内完整保存）/ incremental（分摊到多个 tick）/ async（分摊并异步等待落盘）
+    private static String hotBackupSaveMode = "blocking";
+    // 增量保存时每个 tick 用于保存区块的时间预算（毫秒）
+    private static int hotBackupSaveBudgetMs = 10;
+    // 发送 WORLD_SAVED 后暂停世界保存、等待备份结果的最长时间（秒），0 表示不暂停
+    private static int saveOffTimeoutSeconds = 600;
 
     /**
      * 从配置文件加载设置
@@ -29,6 +45,14 @@ public class Config {
             configId = Integer.parseInt(props.getProperty("configId", "-1"));
             worldIndex = Integer.parseInt(props.getProperty("worldIndex", "-1"));
             internalTime = Integer.parseInt(props.getProperty("internalTime", "-1"));
+            batchWindowMs = Long.parseLong(props.getProperty("batchWindowMs", "50"));
+            eventsPerTick = Math.max(1, Integer.parseInt(props.getProperty("eventsPerTick", "8")));
+            notificationMode = props.getProperty("notificationMode", "bossbar").trim();
+            notificationsPerMinute = Math.max(1, Integer.parseInt(props.getProperty("notificationsPerMinute", "6")));
+            knotLinkSocketDir = props.getProperty("knotLinkSocketDir", "").trim();
+            hotBackupSaveMode = props.getProperty("hotBackupSaveMode", "blocking").trim();
+            hotBackupSaveBudgetMs = Math.max(1, Integer.parseInt(props.getProperty("hotBackupSaveBudgetMs", "10")));
+            saveOffTimeoutSeconds = Math.max(0, Integer.parseInt(props.getProperty("saveOffTimeoutSeconds", "600")));
             MineBackup.LOGGER.info("[MineBackup] 配置加载成功: configId={}, worldIndex={}, internalTime={}",
                 configId, worldIndex, internalTime);
         } catch (IOException | NumberFormatException e) {
@@ -46,6 +70,14 @@ public class Config {
             props.setProperty("configId", String.valueOf(configId));
             props.setProperty("worldIndex", String.valueOf(worldIndex));
             props.setProperty("internalTime", String.valueOf(internalTime));
+            props.setProperty("batchWindowMs", String.valueOf(batchWindowMs));
+            props.setProperty("eventsPerTick", String.valueOf(eventsPerTick));
+            props.setProperty("notificationMode", notificationMode);
+            props.setProperty("notificationsPerMinute", String.valueOf(notificationsPerMinute));
+            props.setProperty("knotLinkSocketDir", knotLinkSocketDir);
+            props.setProperty("hotBackupSaveMode", hotBackupSaveMode);
+            props.setProperty("hotBackupSaveBudgetMs", String.valueOf(hotBackupSaveBudgetMs));
+            props.setProperty("saveOffTimeoutSeconds", String.valueOf(saveOffTimeoutSeconds));
             props.store(fos, "MineBackup Auto Config");
             MineBackup.LOGGER.info("[MineBackup] 配置保存成功");
         } catch (IOException e) {
@@ -87,5 +119,27 @@ public class Config {
     public static int getConfigId() { return configId; }
     public static int getWorldIndex() { return worldIndex; }
     public static int getInternalTime() { return internalTime; }
+    public static long getBatchWindowMs() { return batchWindowMs; }
+    public static int getEventsPerTick() { return eventsPerTick; }
+    public static int getNotificationsPerMinute() { return notificationsPerMinute; }
+
+    /**
+     * 默认的备份通知方式，配置值无法识别时使用 boss 栏
+     */
+    public static NotificationAggregator.Mode getNotificationMode() {
+        NotificationAggregator.Mode mode = NotificationAggregator.Mode.parse(notificationMode);
+        return mode != null ? mode : NotificationAggregator.Mode.BOSSBAR;
+    }
+    public static String getKnotLinkSocketDir() { return knotLinkSocketDir; }
+    public static int getHotBackupSaveBudgetMs() { return hotBackupSaveBudgetMs; }
+    public static int getSaveOffTimeoutSeconds() { return saveOffTimeoutSeconds; }
+
+    /**
+     * 热备份前的保存方式，配置值无法识别时使用阻塞式完整保存
+     */
+    public static HotBackupSaver.Mode getHotBackupSaveMode() {
+        HotBackupSaver.Mode mode = HotBackupSaver.Mode.parse(hotBackupSaveMode);
+        return mode != null ? mode : HotBackupSaver.Mode.BLOCKING;
+    }
 }
 
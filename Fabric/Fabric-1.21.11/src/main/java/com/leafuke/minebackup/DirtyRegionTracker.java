@@ -0,0 +1,264 @@
+package com.leafuke.minebackup;
+
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 记录自上次成功备份以来写入过的区域文件（region / entities / poi 下的 .mca），
+ * 热备份时随 WORLD_SAVED 给出增量清单，主程序只需读取这些文件，无需扫描并哈希整个存档目录。
+ *
+ * 每次发送 WORLD_SAVED 开始一个新的备份代：此前记下的文件移入“待确认”集合并写入清单，之后的写入记入下一代；
+ * 收到 backup_success 后丢弃待确认集合，backup_failed 则把它们并回当前集合，留给下一次备份。
+ * 集合在服务器线程上切换，清单中各文件的大小与修改时间在单独的线程上读取并写出，不占用服务器 tick。
+ * 状态保存在配置目录中，服务器正常停止时标记为完整；首次使用或上次未正常停止（可能漏记写入）时，
+ * 清单标记为 full，主程序需要完整扫描一次，之后的备份才能使用增量清单。
+ * 热还原会整体替换存档文件，开始还原时记录即失效，还原后的第一次备份同样需要完整扫描。
+ *
+ * 只跟踪区域文件；level.dat、玩家数据、data/ 等小文件不在清单中，主程序仍照常复制。
+ */
+public final class DirtyRegionTracker {
+    private static final String STATE_DIR = "minebackup-dirty";
+
+    // 单线程依次写出清单，前一代尚未写完时后一代排在其后，不会同时写同一个临时文件
+    private static final ExecutorService MANIFEST_WRITER =
+            Executors.newSingleThreadExecutor(Thread.ofVirtual().name("minebackup-manifest").factory());
+
+    // IO 线程写入，服务器线程读取并移走
+    private static final Set<Region> dirty = ConcurrentHashMap.newKeySet();
+    // 以下状态仅在服务器线程上访问
+    private static final Set<String> shipped = new TreeSet<>();
+    private static final Set<String> carried = new TreeSet<>();
+    private static Path worldRoot;
+    private static Path stateFile;
+    private static Path manifestFile;
+    private static long generation;
+    // 当前集合是否覆盖了自上次备份以来的所有写入
+    private static boolean baseline;
+    // 存档即将被热还原替换，本次运行中不再建立基线
+    private static boolean invalidated;
+
+    private DirtyRegionTracker() {}
+
+    /**
+     * 区域文件写入完成（IO 线程）
+     */
+    public static void recordWrite(Path folder, int regionX, int regionZ) {
+        dirty.add(new Region(folder, regionX, regionZ));
+    }
+
+    /**
+     * 服务器开始加载世界时调用，读取上次保存的状态
+     */
+    static void start(MinecraftServer server) {
+        dirty.clear();
+        shipped.clear();
+        carried.clear();
+        worldRoot = server.getWorldPath(LevelResource.ROOT).toAbsolutePath().normalize();
+        String levelId = worldRoot.getFileName() != null ? worldRoot.getFileName().toString() : "world";
+        Path dir = FabricLoader.getInstance().getConfigDir().resolve(STATE_DIR);
+        stateFile = dir.resolve(levelId + ".txt");
+        manifestFile = dir.resolve(levelId + "-manifest.txt");
+        generation = 0L;
+        baseline = false;
+        invalidated = false;
+        boolean clean = false;
+        try {
+            List<String> lines = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                if (line.startsWith("generation=")) {
+                    generation = Long.parseLong(line.substring("generation=".length()).trim());
+                } else if (line.startsWith("baseline=")) {
+                    baseline = Boolean.parseBoolean(line.substring("baseline=".length()).trim());
+                } else if (line.startsWith("clean=")) {
+                    clean = Boolean.parseBoolean(line.substring("clean=".length()).trim());
+                } else if (line.startsWith("D ")) {
+                    carried.add(line.substring(2));
+                } else if (line.startsWith("S ")) {
+                    // 上次停止时仍未收到备份结果，按失败处理
+                    carried.add(line.substring(2));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            MineBackup.LOGGER.info("[MineBackup] 未找到世界 {} 的区域文件记录，下一次备份需要完整扫描", levelId);
+        } catch (IOException | NumberFormatException e) {
+            MineBackup.LOGGER.warn("[MineBackup] 读取区域文件记录失败，下一次备份需要完整扫描: {}", e.toString());
+        }
+        if (!clean) {
+            baseline = false;
+        }
+        // 运行期间标记为未正常停止，崩溃后重启时不会信任不完整的记录
+        persist(false);
+        MineBackup.LOGGER.info("[MineBackup] 区域文件跟踪：世界 {}，第 {} 代，沿用 {} 个待备份文件{}",
+                levelId, generation, carried.size(), baseline ? "" : "（下一次需要完整扫描）");
+    }
+
+    /**
+     * 开始新的备份代并在后台写出本代的清单（发送 WORLD_SAVED 前在服务器线程上调用）
+     * @return 清单写出后完成（不在服务器线程上）；写出失败时结果为 null，主程序应按完整扫描处理
+     */
+    static CompletableFuture<Path> snapshot() {
+        if (worldRoot == null) return CompletableFuture.completedFuture(null);
+        // 之前未确认的集合并入本代：主程序收到新清单后以它为准
+        shipped.addAll(carried);
+        carried.clear();
+        for (Region region : dirty) {
+            dirty.remove(region);
+            String relative = region.relativeTo(worldRoot);
+            if (relative != null) {
+                shipped.add(relative);
+            }
+        }
+        generation++;
+        persist(false);
+        // 后台线程只使用这里取下的副本，之后服务器线程上的状态变化不影响本代清单
+        List<String> files = List.copyOf(shipped);
+        Path root = worldRoot;
+        Path target = manifestFile;
+        long manifestGeneration = generation;
+        boolean full = !baseline;
+        return CompletableFuture.supplyAsync(() -> writeManifest(target, root, manifestGeneration, full, files), MANIFEST_WRITER);
+    }
+
+    /**
+     * 读取各文件的大小与修改时间并写出清单（清单写出线程）
+     */
+    private static Path writeManifest(Path target, Path root, long manifestGeneration, boolean full, List<String> files) {
+        long begin = System.nanoTime();
+        try {
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            long bytes = 0L;
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write("# MineBackup dirty region manifest: <path>\t<size>\t<mtime ms>, size -1 = deleted\n");
+                writer.write("generation=" + manifestGeneration + "\n");
+                writer.write("full=" + full + "\n");
+                writer.write("root=" + root + "\n");
+                for (String relative : files) {
+                    long size = -1L;
+                    long modified = -1L;
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(root.resolve(relative), BasicFileAttributes.class);
+                        size = attributes.size();
+                        modified = attributes.lastModifiedTime().toMillis();
+                    } catch (NoSuchFileException ignored) {
+                        // 写入后又被删除
+                    }
+                    writer.write(relative + "\t" + size + "\t" + modified + "\n");
+                    if (size > 0) bytes += size;
+                }
+            }
+            move(temp, target);
+            MineBackup.LOGGER.info("[MineBackup] 第 {} 代区域文件清单：{} 个文件，共 {} KB{}，生成耗时 {}ms",
+                    manifestGeneration, files.size(), bytes / 1024, full ? "（需要完整扫描）" : "",
+                    (System.nanoTime() - begin) / 1_000_000);
+            return target;
+        } catch (IOException e) {
+            MineBackup.LOGGER.error("[MineBackup] 写出区域文件清单失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 收到备份结果（服务器线程）
+     */
+    static void backupFinished(boolean success) {
+        if (worldRoot == null) return;
+        if (success) {
+            // 备份时间点之后的写入都在当前集合里，从此可以给出增量清单
+            shipped.clear();
+            baseline = !invalidated;
+        } else {
+            carried.addAll(shipped);
+            shipped.clear();
+        }
+        persist(false);
+    }
+
+    /**
+     * 热还原开始时调用（服务器线程）：存档文件将被替换，已有记录不再对应磁盘上的文件，
+     * 立即保存为无基线状态，还原后的第一份清单标记为 full
+     */
+    static void invalidate() {
+        if (worldRoot == null) return;
+        invalidated = true;
+        baseline = false;
+        persist(false);
+        MineBackup.LOGGER.info("[MineBackup] 存档即将被热还原替换，区域文件记录已失效，下一次备份需要完整扫描");
+    }
+
+    /**
+     * 服务器完全停止后调用（停止过程中的最终保存已经记下），标记记录完整
+     */
+    static void stop() {
+        if (worldRoot == null) return;
+        carried.addAll(shipped);
+        shipped.clear();
+        for (Region region : dirty) {
+            String relative = region.relativeTo(worldRoot);
+            if (relative != null) {
+                carried.add(relative);
+            }
+        }
+        dirty.clear();
+        persist(true);
+        worldRoot = null;
+    }
+
+    private static void persist(boolean clean) {
+        try {
+            Files.createDirectories(stateFile.getParent());
+            Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write("generation=" + generation + "\n");
+                writer.write("baseline=" + baseline + "\n");
+                writer.write("clean=" + clean + "\n");
+                for (String relative : carried) {
+                    writer.write("D " + relative + "\n");
+                }
+                for (String relative : shipped) {
+                    writer.write("S " + relative + "\n");
+                }
+            }
+            move(temp, stateFile);
+        } catch (IOException e) {
+            MineBackup.LOGGER.error("[MineBackup] 保存区域文件记录失败", e);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private record Region(Path folder, int x, int z) {
+        /**
+         * 相对存档根目录的路径（以 / 分隔）；不在当前存档中时返回 null
+         */
+        String relativeTo(Path root) {
+            Path file = folder.toAbsolutePath().normalize().resolve("r." + x + "." + z + ".mca");
+            if (!file.startsWith(root)) return null;
+            return root.relativize(file).toString().replace('\\', '/');
+        }
+    }
+}
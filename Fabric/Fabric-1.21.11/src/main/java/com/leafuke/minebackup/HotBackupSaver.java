@@ -0,0 +1,290 @@
+package com.leafuke.minebackup;
+
+import com.leafuke.minebackup.mixin.ChunkMapAccessor;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.chunk.ChunkAccess;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 热备份前的世界保存（仅在服务器线程上使用）
+ *
+ * blocking：在当前 tick 内一次完成完整保存，大世界会让服务器卡顿数秒。
+ * incremental：先记下所有有未保存修改的区块，之后每个 tick 结束时在配置的时间预算内逐个提交保存
+ * （服务器线程只复制区块数据，序列化与写入区域文件由后台线程完成）；全部提交后再做一次完整保存，
+ * 此时只剩期间新产生的少量修改、实体与 level.dat，并等待区域文件写入全部落盘，之后才回调通知主程序。
+ * async：区块提交方式与 incremental 相同，但最后一步不在服务器线程上等待落盘：
+ * 补交期间重新变动的区块、写完体积很小的存档数据（data/*.dat），并以不刷盘的方式保存其余数据后，立即返回；
+ * 区块、实体、兴趣点各自的区域文件 IO 线程全部写完并刷盘（屏障完成）后，再回到服务器线程回调。
+ */
+final class HotBackupSaver {
+
+    enum Mode {
+        BLOCKING,
+        INCREMENTAL,
+        ASYNC;
+
+        String id() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        static Mode parse(String value) {
+            if (value == null) return null;
+            for (Mode mode : values()) {
+                if (mode.id().equals(value.trim().toLowerCase(Locale.ROOT))) return mode;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 保存全部落盘后的回调
+     */
+    interface Completion {
+        /**
+         * @param allSaved 是否全部保存成功
+         * @param gameTime 保存时主世界的游戏刻，即备份对应的时间点
+         */
+        void saved(boolean allSaved, long gameTime);
+    }
+
+    private static final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    // 保存进行中又收到的请求合并到同一次保存，完成时一起回调
+    private static final List<Completion> callbacks = new ArrayList<>();
+    private static Mode mode;
+    private static BooleanSupplier finalSave;
+    private static boolean running = false;
+    // async 模式：已在等待 IO 屏障，不再推进
+    private static boolean awaitingBarrier = false;
+    // 每次结束或放弃保存时递增，用于识别已经作废的屏障回调
+    private static int generation = 0;
+    // save-off 窗口关闭后的补写：只提交区块，不做最终保存，也没有回调
+    private static boolean catchingUp = false;
+
+    // 本次保存的统计
+    private static long startedAt;
+    private static int totalChunks;
+    private static int savedChunks;
+    private static int ticks;
+    private static long workNanos;
+    private static long maxTickNanos;
+    private static long baselineMspt;
+    private static long peakMspt;
+
+    private HotBackupSaver() {}
+
+    static boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 开始热备份前的保存
+     * @param fullSave 完整保存（等待写入落盘），返回是否全部保存成功；async 模式不使用
+     * @param onSaved 保存全部落盘后在服务器线程上调用
+     */
+    static void start(MinecraftServer server, Mode saveMode, BooleanSupplier fullSave, Completion onSaved) {
+        if (running && catchingUp) {
+            // 新的保存会覆盖补写的全部内容
+            MineBackup.LOGGER.info("[MineBackup] 收到热备份请求，停止补写（剩余 {} 个区块）", pending.size());
+            reset();
+        }
+        if (running) {
+            MineBackup.LOGGER.info("[MineBackup] 热备份保存正在进行（剩余 {} 个区块），本次请求将在其完成后一起通知", pending.size());
+            callbacks.add(onSaved);
+            return;
+        }
+        if (saveMode == Mode.BLOCKING) {
+            long begin = System.nanoTime();
+            long gameTime = server.overworld().getGameTime();
+            boolean allSaved = fullSave.getAsBoolean();
+            MineBackup.LOGGER.info("[MineBackup] 阻塞式保存耗时 {}ms（单个 tick 内完成，保存前平均 MSPT {}ms）",
+                    millis(System.nanoTime() - begin), millis(server.getAverageTickTimeNanos()));
+            onSaved.saved(allSaved, gameTime);
+            return;
+        }
+
+        collectDirtyChunks(server);
+        mode = saveMode;
+        finalSave = fullSave;
+        callbacks.add(onSaved);
+        running = true;
+        MineBackup.LOGGER.info("[MineBackup] 开始{}保存：{} 个区块待保存，每 tick 预算 {}ms",
+                saveMode == Mode.ASYNC ? "异步" : "增量", totalChunks, Config.getHotBackupSaveBudgetMs());
+    }
+
+    /**
+     * 补写 save-off 窗口期间产生修改的区块，同样按 tick 预算分摊
+     */
+    static void catchUp(MinecraftServer server) {
+        if (running) {
+            // 正在进行的保存会一并写入这些修改
+            return;
+        }
+        collectDirtyChunks(server);
+        if (pending.isEmpty()) {
+            return;
+        }
+        mode = Mode.INCREMENTAL;
+        catchingUp = true;
+        running = true;
+        MineBackup.LOGGER.info("[MineBackup] 开始补写暂停保存期间修改的 {} 个区块", totalChunks);
+    }
+
+    private static void collectDirtyChunks(MinecraftServer server) {
+        startedAt = System.nanoTime();
+        baselineMspt = server.getAverageTickTimeNanos();
+        peakMspt = baselineMspt;
+        savedChunks = 0;
+        ticks = 0;
+        for (ServerLevel level : server.getAllLevels()) {
+            ChunkMapAccessor chunkMap = (ChunkMapAccessor) level.getChunkSource().chunkMap;
+            for (ChunkHolder holder : chunkMap.minebackup$getChunks()) {
+                ChunkAccess chunk = holder.getLatestChunk();
+                if (chunk != null && chunk.isUnsaved()) {
+                    pending.addLast(new Pending(chunkMap, holder));
+                }
+            }
+        }
+        totalChunks = pending.size();
+        workNanos = System.nanoTime() - startedAt;
+        maxTickNanos = workNanos;
+    }
+
+    /**
+     * 每个服务器 tick 结束时调用，在预算内提交一批区块保存；全部提交后完成最终保存
+     */
+    static void tick(MinecraftServer server) {
+        if (!running || awaitingBarrier) return;
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(Config.getHotBackupSaveBudgetMs());
+        // 每个 tick 至少保存一个区块，保证预算再小也能向前推进
+        do {
+            Pending next = pending.pollFirst();
+            if (next == null) break;
+            ChunkAccess chunk = next.holder.getLatestChunk();
+            // 期间已被卸载或自动保存的区块不再有未保存的修改，save 直接返回 false
+            if (chunk != null && next.chunkMap.minebackup$save(chunk)) {
+                savedChunks++;
+            }
+        } while (System.nanoTime() < deadline);
+        long spent = System.nanoTime() - begin;
+        ticks++;
+        workNanos += spent;
+        maxTickNanos = Math.max(maxTickNanos, spent);
+        peakMspt = Math.max(peakMspt, server.getAverageTickTimeNanos());
+        if (pending.isEmpty()) {
+            if (catchingUp) {
+                MineBackup.LOGGER.info("[MineBackup] 补写完成：保存 {}/{} 个区块，分 {} 个 tick，每 tick 最多 {}ms，总耗时 {}ms",
+                        savedChunks, totalChunks, ticks, millis(maxTickNanos), millis(System.nanoTime() - startedAt));
+                reset();
+            } else if (mode == Mode.ASYNC) {
+                finishAsync(server);
+            } else {
+                finish(server);
+            }
+        }
+    }
+
+    private static void finish(MinecraftServer server) {
+        long begin = System.nanoTime();
+        long gameTime = server.overworld().getGameTime();
+        boolean allSaved = finalSave.getAsBoolean();
+        long finalNanos = System.nanoTime() - begin;
+        MineBackup.LOGGER.info("[MineBackup] 增量保存完成：保存 {}/{} 个区块，分 {} 个 tick，每 tick 最多 {}ms，"
+                        + "最终完整保存 {}ms，服务器线程合计 {}ms，总耗时 {}ms；平均 MSPT 保存前 {}ms，保存期间最高 {}ms",
+                savedChunks, totalChunks, ticks, millis(maxTickNanos), millis(finalNanos), millis(workNanos + finalNanos),
+                millis(System.nanoTime() - startedAt), millis(baselineMspt), millis(Math.max(peakMspt, server.getAverageTickTimeNanos())));
+        complete(allSaved, gameTime);
+    }
+
+    /**
+     * async 模式的最后一步：补交期间重新变动的区块，写完存档数据，不刷盘地保存其余数据，然后等待 IO 屏障
+     */
+    private static void finishAsync(MinecraftServer server) {
+        long begin = System.nanoTime();
+        long gameTime = server.overworld().getGameTime();
+        int resubmitted = 0;
+        for (ServerLevel level : server.getAllLevels()) {
+            // 原版不刷盘的保存对刚保存过的区块有冷却时间，这里直接提交，保证快照时间点之前的修改全部写入
+            resubmitted += SaveCoordinator.submitDirtyChunks(level);
+        }
+        for (ServerLevel level : server.getAllLevels()) {
+            // 原版的存档数据（data/*.dat）由它自己的线程池写入，不经过下面的 IO 屏障；
+            // 这些文件很小，在服务器线程上直接写完，之后的保存就不会再为它们提交写入
+            level.getDataStorage().saveAndJoin();
+        }
+        // 玩家数据与 level.dat 在此同步写入；实体只提交写入，由 IO 屏障等待落盘
+        boolean queued = server.saveEverything(true, false, false);
+        CompletableFuture<Void> barrier = flushBarrier(server);
+        long mainNanos = System.nanoTime() - begin;
+        long barrierStart = System.nanoTime();
+        int current = generation;
+        awaitingBarrier = true;
+        barrier.whenComplete((ignored, error) -> server.execute(() -> {
+            if (generation != current) return;
+            if (error != null) {
+                MineBackup.LOGGER.error("[MineBackup] 等待区域文件写入完成时出错", error);
+            }
+            MineBackup.LOGGER.info("[MineBackup] 异步保存完成：保存 {}/{} 个区块（最后补交 {} 个），分 {} 个 tick，每 tick 最多 {}ms，"
+                            + "最后一步 {}ms，等待 IO 屏障 {}ms，服务器线程合计 {}ms，总耗时 {}ms；平均 MSPT 保存前 {}ms，保存期间最高 {}ms",
+                    savedChunks + resubmitted, totalChunks, resubmitted, ticks, millis(maxTickNanos), millis(mainNanos),
+                    millis(System.nanoTime() - barrierStart), millis(workNanos + mainNanos), millis(System.nanoTime() - startedAt),
+                    millis(baselineMspt), millis(Math.max(peakMspt, server.getAverageTickTimeNanos())));
+            complete(queued && error == null, gameTime);
+        }));
+    }
+
+    /**
+     * 所有维度的区块、实体、兴趣点区域文件存储：之前提交的写入全部完成并刷盘时完成
+     */
+    private static CompletableFuture<Void> flushBarrier(MinecraftServer server) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (ServerLevel level : server.getAllLevels()) {
+            futures.add(SaveCoordinator.flush(level));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private static void complete(boolean allSaved, long gameTime) {
+        List<Completion> done = new ArrayList<>(callbacks);
+        reset();
+        for (Completion callback : done) {
+            callback.saved(allSaved, gameTime);
+        }
+    }
+
+    /**
+     * 服务器停止时放弃尚未完成的保存（停止过程本身会完整保存世界）
+     */
+    static void cancel() {
+        if (running) {
+            MineBackup.LOGGER.warn("[MineBackup] 服务器停止，放弃尚未完成的热备份保存（剩余 {} 个区块）", pending.size());
+        }
+        reset();
+    }
+
+    private static void reset() {
+        pending.clear();
+        callbacks.clear();
+        mode = null;
+        finalSave = null;
+        running = false;
+        awaitingBarrier = false;
+        catchingUp = false;
+        generation++;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+
+    private record Pending(ChunkMapAccessor chunkMap, ChunkHolder holder) {}
+}
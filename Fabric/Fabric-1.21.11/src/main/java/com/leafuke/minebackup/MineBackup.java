@@ -1,12 +1,22 @@
 package com.leafuke.minebackup;
 
+import com.leafuke.minebackup.api.MineBackupEvent;
+import com.leafuke.minebackup.api.MineBackupEvents;
+import com.leafuke.minebackup.knotlink.KnotLinkEvent;
+import com.leafuke.minebackup.knotlink.KnotLinkEventDispatcher;
+import com.leafuke.minebackup.knotlink.KnotLinkEventQueue;
+import com.leafuke.minebackup.knotlink.KnotLinkFeatures;
+import com.leafuke.minebackup.knotlink.KnotLinkTransports;
 import com.leafuke.minebackup.knotlink.OpenSocketQuerier;
 import com.leafuke.minebackup.knotlink.SignalSubscriber;
+import com.leafuke.minebackup.restore.HotRestoreHandoff;
 import com.leafuke.minebackup.restore.HotRestoreState;
 import com.leafuke.minebackup.compat.GcaCompat;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
@@ -16,8 +26,11 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * MineBackup Mod 主入口类（Fabric 1.21.11+，使用 Mojang 官方映射）
@@ -42,6 +55,9 @@ public class MineBackup implements ModInitializer {
     private static final String QUERIER_APP_ID = "0x00000020";
     private static final String QUERIER_SOCKET_ID = "0x00000010";
 
+    // 排队等待服务器线程处理的提示类事件上限
+    private static final int EVENT_QUEUE_CAPACITY = 256;
+
     @Override
     public void onInitialize() {
         LOGGER.info("[MineBackup] 正在初始化 Fabric 1.21.11+ 版本...");
@@ -51,6 +67,34 @@ public class MineBackup implements ModInitializer {
         registerCommands();
     }
 
+    // 需要服务器线程处理的广播事件在此排队，由服务器线程按 tick 取出
+    private static final KnotLinkEventQueue EVENT_QUEUE = new KnotLinkEventQueue(EVENT_QUEUE_CAPACITY, () -> {
+        MinecraftServer server = serverInstance;
+        if (server != null) {
+            // 控制事件不等到 tick 结束，游戏暂停时服务器线程仍会执行提交的任务
+            server.execute(MineBackup::drainControlEvents);
+        }
+    });
+
+    // 广播事件的视图与分发表；事件只在 KnotLink 事件循环线程上送达，视图在事件之间复用
+    private final KnotLinkEvent eventView = new KnotLinkEvent();
+    private final KnotLinkEventDispatcher eventDispatcher = buildEventDispatcher();
+    // 事件类型 → 对外发布的类型化事件（供其他模组订阅，见 api.MineBackupEvents）
+    private final KnotLinkEventDispatcher apiEventDispatcher = buildApiEventDispatcher();
+
+    // 文本事件与二进制事件（bin1）分别进入对应的处理入口，二进制事件不再拼回文本重新解析
+    private final SignalSubscriber.SignalListener signalListener = new SignalSubscriber.SignalListener() {
+        @Override
+        public void onSignalReceived(String data) {
+            handleBroadcastEvent(data);
+        }
+
+        @Override
+        public void onEventReceived(Map<String, String> event) {
+            handleBroadcastEvent(eventView.reset(event));
+        }
+    };
+
     /**
      * 注册命令
      */
@@ -66,21 +110,28 @@ public class MineBackup implements ModInitializer {
     private void registerServerLifecycleEvents() {
         // 服务器启动事件
         ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+            // 先加载配置，订阅器和查询都要用到其中的传输方式
+            Config.load();
+            NotificationAggregator.loadPreferences();
+            KnotLinkTransports.configure(Config.getKnotLinkSocketDir());
+            OpenSocketQuerier.setBatchWindowMs(Config.getBatchWindowMs());
+            // 世界加载前开始记录区域文件写入
+            DirtyRegionTracker.start(server);
+
             // 如果已经有订阅器实例，不重复启动
             if (knotLinkSubscriber == null) {
                 LOGGER.info("[MineBackup] 服务器正在启动，初始化 KnotLink 订阅器...");
                 serverInstance = server;
                 knotLinkSubscriber = new SignalSubscriber(BROADCAST_APP_ID, BROADCAST_SIGNAL_ID);
-                knotLinkSubscriber.setSignalListener(this::handleBroadcastEvent);
+                knotLinkSubscriber.setSignalListener(signalListener);
                 new Thread(knotLinkSubscriber::start).start();
             } else {
                 LOGGER.info("[MineBackup] 服务器正在启动，KnotLink 订阅器已存在...");
                 serverInstance = server;
-                knotLinkSubscriber.setSignalListener(this::handleBroadcastEvent);
+                knotLinkSubscriber.setSignalListener(signalListener);
             }
 
-            // 加载配置并启动自动备份（如果配置了的话）
-            Config.load();
+            // 启动自动备份（如果配置了的话）
             if (Config.hasAutoBackup()) {
                 String cmd = String.format("AUTO_BACKUP %d %d %d", Config.getConfigId(), Config.getWorldIndex(), Config.getInternalTime());
                 OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, cmd);
@@ -88,58 +139,71 @@ public class MineBackup implements ModInitializer {
             }
         });
 
+        // 服务器启动完成后才开始接受需要服务器线程的事件
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> EVENT_QUEUE.open());
+
+        // 每个 tick 结束时处理排队的事件、推进增量保存、推送合并后的通知，再发送本 tick 内收集到的批量查询
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            EVENT_QUEUE.drain(Config.getEventsPerTick());
+            HotBackupSaver.tick(server);
+            SaveOffWindow.tick(server);
+            NotificationAggregator.tick(server);
+            OpenSocketQuerier.flushBatch();
+        });
+
         // 服务器停止事件
         ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            int discarded = EVENT_QUEUE.close();
+            if (discarded > 0) {
+                LOGGER.warn("[MineBackup] 服务器停止，丢弃 {} 个尚未处理的事件", discarded);
+            }
+            LOGGER.info("[MineBackup] 事件队列统计: {}", EVENT_QUEUE.describe());
+            NotificationAggregator.reset();
+            HotBackupSaver.cancel();
+            SaveOffWindow.reset();
+            HotRestoreHandoff.serverStopping();
             // 仅在专用服务器上停止订阅器
             if (server.isDedicatedServer()) {
                 if (knotLinkSubscriber != null) {
                     knotLinkSubscriber.stop();
+                    LOGGER.info("[MineBackup] KnotLink 订阅器统计: {}", knotLinkSubscriber.describeStats());
                     knotLinkSubscriber = null;
                     LOGGER.info("[MineBackup] 服务器停止，已关闭 KnotLink 订阅器。");
                 }
             }
         });
-    }
-
-    /**
-     * 解析事件负载数据
-     * @param payload 格式为 "key1=value1;key2=value2" 的字符串
-     * @return 解析后的键值对映射
-     */
-    private Map<String, String> parsePayload(String payload) {
-        Map<String, String> dataMap = new HashMap<>();
-        if (payload == null || payload.isEmpty()) return dataMap;
-        for (String pair : payload.split(";")) {
-            String[] keyValue = pair.split("=", 2);
-            if (keyValue.length == 2) {
-                dataMap.put(keyValue[0].trim(), keyValue[1].trim());
+        // 服务器完全停止（世界已保存、会话锁已释放）后才完成热还原交接，查询器要等交接通知发出后再关闭
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            HotRestoreHandoff.serverStopped();
+            DirtyRegionTracker.stop();
+            if (server.isDedicatedServer()) {
+                OpenSocketQuerier.shutdown();
             }
-        }
-        return dataMap;
+        });
+        // 热还原交接：被踢出的玩家连接全部关闭
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) ->
+                HotRestoreHandoff.playerDisconnected(handler.getPlayer().getUUID()));
     }
 
-    private Component getWorldDisplay(Map<String, String> eventData) {
-        String world = eventData.get("world");
-        if (world == null || world.isBlank()) {
+    private Component getWorldDisplay(KnotLinkEvent event) {
+        if (event.isBlank("world")) {
             return Component.translatable("minebackup.message.unknown_world");
         }
-        return Component.literal(world);
+        return Component.literal(event.get("world"));
     }
 
-    private Component getFileDisplay(Map<String, String> eventData) {
-        String file = eventData.get("file");
-        if (file == null || file.isBlank()) {
+    private Component getFileDisplay(KnotLinkEvent event) {
+        if (event.isBlank("file")) {
             return Component.translatable("minebackup.message.unknown_file");
         }
-        return Component.literal(file);
+        return Component.literal(event.get("file"));
     }
 
-    private Component getErrorDisplay(Map<String, String> eventData) {
-        String error = eventData.get("error");
-        if (error == null || error.isBlank()) {
+    private Component getErrorDisplay(KnotLinkEvent event) {
+        if (event.isBlank("error")) {
             return Component.translatable("minebackup.message.unknown_error");
         }
-        return Component.literal(error);
+        return Component.literal(event.get("error"));
     }
 
     /**
@@ -281,7 +345,7 @@ public class MineBackup implements ModInitializer {
      * 处理从 MineBackup 主程序接收到的广播事件
      * @param payload 事件负载
      */
-    private void handleBroadcastEvent(String payload) {
+    void handleBroadcastEvent(String payload) {
         if (serverInstance == null) return;
 
         // 处理远程保存命令
@@ -302,256 +366,367 @@ public class MineBackup implements ModInitializer {
             return;
         }
 
-        LOGGER.info("[MineBackup] 收到广播事件: {}", payload);
-        Map<String, String> eventData = parsePayload(payload);
-        String eventType = eventData.get("event");
-        if (eventType == null) return;
-
-        // ========== KnotLink 新协议：处理主程序发来的握手请求 ==========
-        if ("handshake".equals(eventType)) {
-            String mainVersion = eventData.get("version");
-            String action = eventData.get("action");
-            String world = eventData.get("world");
-            String minModVersion = eventData.get("min_mod_version");
-
-            LOGGER.info("[MineBackup] 收到握手请求: 主程序v{}, action={}, world={}, min_mod_version={}",
-                    mainVersion, action, world, minModVersion);
-
-            // 存储握手信息
-            HotRestoreState.mainProgramVersion = mainVersion;
-            HotRestoreState.handshakeCompleted = true;
-            HotRestoreState.requiredMinModVersion = minModVersion;
-
-            // 检查版本兼容性
-            boolean compatible = isVersionCompatible(MOD_VERSION, minModVersion);
-            HotRestoreState.versionCompatible = compatible;
-
-            // 回复握手响应
-            OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, "HANDSHAKE_RESPONSE " + MOD_VERSION);
-            LOGGER.info("[MineBackup] 已发送 HANDSHAKE_RESPONSE，模组版本: {}", MOD_VERSION);
+        LOGGER.debug("[MineBackup] 收到广播事件: {}", payload);
+        handleBroadcastEvent(eventView.reset(payload));
+    }
 
-            // 版本不兼容时警告玩家
-            if (!compatible) {
-                try {
-                    serverInstance.execute(() -> {
-                        serverInstance.getPlayerList().broadcastSystemMessage(
-                                Component.translatable("minebackup.message.handshake.version_incompatible",
-                                        MOD_VERSION, minModVersion != null ? minModVersion : "?"), false);
-                    });
-                } catch (Exception ignored) { }
-                LOGGER.warn("[MineBackup] 模组版本 {} 不满足最低要求 {}", MOD_VERSION, minModVersion);
-            } else {
-                try {
-                    serverInstance.execute(() -> {
-                        serverInstance.getPlayerList().broadcastSystemMessage(
-                                Component.translatable("minebackup.message.handshake.success",
-                                        mainVersion != null ? mainVersion : "?"), false);
-                    });
-                } catch (Exception ignored) { }
-            }
-            return;
+    /**
+     * 处理一条广播事件（文本事件与二进制事件共用），按事件类型查表分发
+     * @param event 事件视图，只在本次调用期间有效
+     */
+    void handleBroadcastEvent(KnotLinkEvent event) {
+        // 对外事件在事件循环线程上立即发布，不等待服务器线程，服务器未运行时也照常发布
+        apiEventDispatcher.dispatch(event);
+        if (serverInstance == null) return;
+        if (!eventDispatcher.dispatch(event) && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("[MineBackup] 忽略未处理的事件类型: {}", event.type());
         }
+    }
 
-        // 处理热还原前的准备事件
-        if ("pre_hot_restore".equals(eventType)) {
-            LOGGER.info("[MineBackup] 收到热还原准备请求");
-            serverInstance.execute(() -> {
-                serverInstance.getPlayerList().broadcastSystemMessage(
-                    Component.translatable("minebackup.message.restore.preparing"), false);
-
-                // 标记还原状态，避免重复触发
-                HotRestoreState.isRestoring = true;
-                HotRestoreState.waitingForServerStopAck = true;
-
-                // 区分服务器类型
-                if (serverInstance.isDedicatedServer()) {
-                    // 专用服务器逻辑：踢出所有玩家并关闭服务器
-                    LOGGER.info("[MineBackup] 检测到专用服务器，踢出所有玩家并停止服务器");
-                    var playerList = serverInstance.getPlayerList().getPlayers();
-                    Component kickMessage = Component.translatable("minebackup.message.restore.kick");
-
-                    // 先保存世界数据，确保数据完整性
-                    LOGGER.info("[MineBackup] 保存世界数据...");
-                    boolean saveSuccess = serverInstance.saveAllChunks(true, true, true);
-                    if (!saveSuccess) {
-                        LOGGER.warn("[MineBackup] 世界保存可能不完整");
-                    }
+    /**
+     * 构建事件分发表，每个 MineBackup 实例只构建一次
+     */
+    private KnotLinkEventDispatcher buildEventDispatcher() {
+        Map<String, KnotLinkEventDispatcher.Handler> table = new HashMap<>();
+        // 握手、还原完成与重连只修改状态或发起异步查询，单人游戏退出到标题界面后服务器不再运行时也必须处理，
+        // 因此直接在事件循环线程上执行；需要服务器线程的控制事件排队后优先处理
+        table.put("handshake", this::onHandshake);
+        table.put("pre_hot_restore", EVENT_QUEUE.control(this::onPreHotRestore));
+        table.put("restore_finished", this::onRestoreFinished);
+        table.put("restore_success", this::onRestoreFinished);
+        table.put("rejoin_world", this::onRejoinWorld);
+        table.put("pre_hot_backup", EVENT_QUEUE.control(this::onPreHotBackup));
+        // 备份结果结束 save-off 窗口，不能被合并或丢弃，因此按控制事件处理
+        table.put("backup_success", EVENT_QUEUE.control(event -> {
+            SaveOffWindow.close(serverInstance, "备份完成", true);
+            DirtyRegionTracker.backupFinished(true);
+            NotificationAggregator.finish(Component.translatable(
+                    "minebackup.broadcast.backup.success", getWorldDisplay(event), getFileDisplay(event)), true);
+        }));
+        table.put("backup_failed", EVENT_QUEUE.control(event -> {
+            SaveOffWindow.close(serverInstance, "备份失败", true);
+            DirtyRegionTracker.backupFinished(false);
+            NotificationAggregator.finish(Component.translatable(
+                    "minebackup.broadcast.backup.failed", getWorldDisplay(event), getErrorDisplay(event)), false);
+        }));
+        table.put("game_session_start", event ->
+                LOGGER.info("[MineBackup] 检测到游戏会话开始，世界: {}", getWorldDisplay(event).getString()));
+
+        // 只需要通知玩家的事件：排队后按 tick 分批处理，重复的事件会被合并，
+        // 同一次备份过程中的通知再由 NotificationAggregator 合并为一条进度
+        table.put("backup_started", EVENT_QUEUE.informational(event -> NotificationAggregator.start(Component.translatable(
+                "minebackup.broadcast.backup.started", getWorldDisplay(event)))));
+        table.put("restore_started", EVENT_QUEUE.informational(event -> NotificationAggregator.start(Component.translatable(
+                "minebackup.broadcast.restore.started", getWorldDisplay(event)))));
+        table.put("game_session_end", EVENT_QUEUE.informational(event -> NotificationAggregator.notice(Component.translatable(
+                "minebackup.broadcast.session.end", getWorldDisplay(event)))));
+        table.put("auto_backup_started", EVENT_QUEUE.informational(event -> NotificationAggregator.start(Component.translatable(
+                "minebackup.broadcast.auto_backup.started", getWorldDisplay(event)))));
+        table.put("we_snapshot_completed", EVENT_QUEUE.informational(event -> NotificationAggregator.finish(Component.translatable(
+                "minebackup.broadcast.we_snapshot.completed", getWorldDisplay(event), getFileDisplay(event)), true)));
+        return new KnotLinkEventDispatcher(table);
+    }
 
-                    // 踢出所有玩家
-                    for (var player : playerList.toArray(new ServerPlayer[0])) {
-                        try {
-                            player.connection.disconnect(kickMessage);
-                        } catch (Exception e) {
-                            LOGGER.warn("[MineBackup] 踢出玩家 {} 时出现异常: {}", player.getName().getString(), e.getMessage());
-                        }
-                    }
+    /**
+     * 构建对外事件的分发表：把广播事件转换为类型化事件并发布
+     */
+    private static KnotLinkEventDispatcher buildApiEventDispatcher() {
+        Map<String, KnotLinkEventDispatcher.Handler> table = new HashMap<>();
+        table.put("backup_started", event -> MineBackupEvents.post(
+                new MineBackupEvent.BackupStarted(event.get("world"), false)));
+        table.put("auto_backup_started", event -> MineBackupEvents.post(
+                new MineBackupEvent.BackupStarted(event.get("world"), true)));
+        table.put("backup_success", event -> MineBackupEvents.post(
+                new MineBackupEvent.BackupCompleted(event.get("world"), event.get("file"))));
+        table.put("backup_failed", event -> MineBackupEvents.post(
+                new MineBackupEvent.BackupFailed(event.get("world"), event.get("error"))));
+        table.put("pre_hot_backup", event -> MineBackupEvents.post(
+                new MineBackupEvent.HotBackupRequested(event.get("world"))));
+        table.put("pre_hot_restore", event -> MineBackupEvents.post(
+                new MineBackupEvent.RestorePrepared(event.get("world"))));
+        table.put("restore_started", event -> MineBackupEvents.post(
+                new MineBackupEvent.RestoreStarted(event.get("world"))));
+        table.put("restore_success", event -> MineBackupEvents.post(
+                new MineBackupEvent.RestoreFinished(event.get("world"), true)));
+        table.put("restore_finished", event -> MineBackupEvents.post(
+                new MineBackupEvent.RestoreFinished(event.get("world"),
+                        !event.has("status") || event.valueEquals("status", "success"))));
+        table.put("we_snapshot_completed", event -> MineBackupEvents.post(
+                new MineBackupEvent.SnapshotCompleted(event.get("world"), event.get("file"))));
+        table.put("game_session_start", event -> MineBackupEvents.post(
+                new MineBackupEvent.SessionStarted(event.get("world"))));
+        table.put("game_session_end", event -> MineBackupEvents.post(
+                new MineBackupEvent.SessionEnded(event.get("world"))));
+        return new KnotLinkEventDispatcher(table);
+    }
 
-                    // 通知 MineBackup 主程序可以开始还原，稍微等待确保断开完成
-                    new Thread(() -> {
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException ignored) {
-                            Thread.currentThread().interrupt();
-                        }
-                        // KnotLink 新协议：只发送 WORLD_SAVE_AND_EXIT_COMPLETE，避免与旧信号重复触发
-                        OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, "WORLD_SAVE_AND_EXIT_COMPLETE");
-                        LOGGER.info("[MineBackup] 已发送 WORLD_SAVE_AND_EXIT_COMPLETE (专用服务器)");
-                    }).start();
-
-                    // 停止服务器
-                    serverInstance.stopServer();
-                } else {
-                    // 单人游戏逻辑（参考 QuickBackupM-Reforged 实现）
-                    LOGGER.info("[MineBackup] 检测到单人游戏，保存并断开连接");
-
-                    // 1. 获取当前世界存档文件夹名称
-                    String levelId = resolveRejoinLevelId(serverInstance, eventData.get("world"));
-                    MineBackupClient.worldToRejoin = levelId;
-                    HotRestoreState.levelIdToRejoin = levelId;
-                    LOGGER.info("[MineBackup] 保存世界ID用于自动重连: {}", levelId);
-
-                    // 2. 保存游戏 - 使用同步保存确保数据完整
-                    LOGGER.info("[MineBackup] 保存世界数据...");
-                    boolean saveSuccess = serverInstance.saveAllChunks(true, true, true);
-                    if (!saveSuccess) {
-                        LOGGER.warn("[MineBackup] 世界保存可能不完整，但继续进行还原流程");
+    // ========== KnotLink 新协议：处理主程序发来的握手请求 ==========
+    private void onHandshake(KnotLinkEvent event) {
+        String mainVersion = event.get("version");
+        String action = event.get("action");
+        String world = event.get("world");
+        String minModVersion = event.get("min_mod_version");
+
+        LOGGER.info("[MineBackup] 收到握手请求: 主程序v{}, action={}, world={}, min_mod_version={}",
+                mainVersion, action, world, minModVersion);
+
+        // 存储握手信息
+        HotRestoreState.mainProgramVersion = mainVersion;
+        HotRestoreState.handshakeCompleted = true;
+        HotRestoreState.requiredMinModVersion = minModVersion;
+
+        // 检查版本兼容性
+        boolean compatible = isVersionCompatible(MOD_VERSION, minModVersion);
+        HotRestoreState.versionCompatible = compatible;
+
+        // 协商可选特性（主程序未声明 features 时保持旧协议）
+        String acceptedFeatures = KnotLinkFeatures.negotiate(event.get("features"));
+
+        // 回复握手响应，主程序确认后再启用协商好的特性
+        String handshakeResponse = acceptedFeatures.isEmpty()
+                ? "HANDSHAKE_RESPONSE " + MOD_VERSION
+                : "HANDSHAKE_RESPONSE " + MOD_VERSION + " features=" + acceptedFeatures;
+        OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, handshakeResponse)
+                .thenAccept(response -> {
+                    if (response != null && !response.startsWith("ERROR:")) {
+                        KnotLinkFeatures.activate(acceptedFeatures);
                     }
+                });
+        LOGGER.info("[MineBackup] 已发送 HANDSHAKE_RESPONSE，模组版本: {}，特性: {}", MOD_VERSION,
+                acceptedFeatures.isEmpty() ? "-" : acceptedFeatures);
+
+        // 版本不兼容时警告玩家
+        if (!compatible) {
+            try {
+                serverInstance.execute(() -> {
+                    serverInstance.getPlayerList().broadcastSystemMessage(
+                            Component.translatable("minebackup.message.handshake.version_incompatible",
+                                    MOD_VERSION, minModVersion != null ? minModVersion : "?"), false);
+                });
+            } catch (Exception ignored) { }
+            LOGGER.warn("[MineBackup] 模组版本 {} 不满足最低要求 {}", MOD_VERSION, minModVersion);
+        } else {
+            try {
+                serverInstance.execute(() -> {
+                    serverInstance.getPlayerList().broadcastSystemMessage(
+                            Component.translatable("minebackup.message.handshake.success",
+                                    mainVersion != null ? mainVersion : "?"), false);
+                });
+            } catch (Exception ignored) { }
+        }
+    }
 
-                    // 3. 踢出玩家（这将触发客户端断开连接，从而关闭集成服务器）
-                    // 参考 QuickBackupM-Reforged: 使用 player.connection.disconnect()
-                    var players = serverInstance.getPlayerList().getPlayers();
-                    if (!players.isEmpty()) {
-                        Component kickMessage = Component.translatable("minebackup.message.restore.kick");
-                        for (var player : players.toArray(new ServerPlayer[0])) {
-                            try {
-                                LOGGER.info("[MineBackup] 断开玩家连接: {}", player.getName().getString());
-                                player.connection.disconnect(kickMessage);
-                            } catch (Exception e) {
-                                LOGGER.warn("[MineBackup] 断开玩家 {} 时出现异常: {}", player.getName().getString(), e.getMessage());
-                            }
-                        }
-                    }
+    // 处理热还原前的准备事件
+    private void onPreHotRestore(KnotLinkEvent event) {
+        LOGGER.info("[MineBackup] 收到热还原准备请求");
+        String worldFromEvent = event.get("world");
+        serverInstance.getPlayerList().broadcastSystemMessage(
+            Component.translatable("minebackup.message.restore.preparing"), false);
+
+        // 标记还原状态，避免重复触发
+        HotRestoreState.isRestoring = true;
+        HotRestoreState.waitingForServerStopAck = true;
+        // 还原会替换存档文件，增量记录不再适用
+        DirtyRegionTracker.invalidate();
+
+        // 区分服务器类型
+        if (serverInstance.isDedicatedServer()) {
+            // 专用服务器逻辑：踢出所有玩家并关闭服务器
+            LOGGER.info("[MineBackup] 检测到专用服务器，踢出所有玩家并停止服务器");
+            var playerList = serverInstance.getPlayerList().getPlayers();
+            Component kickMessage = Component.translatable("minebackup.message.restore.kick");
+            beginHandoff(playerList);
+
+            // 先保存世界数据，确保数据完整性
+            LOGGER.info("[MineBackup] 保存世界数据...");
+            boolean saveSuccess = serverInstance.saveAllChunks(true, true, true);
+            if (!saveSuccess) {
+                LOGGER.warn("[MineBackup] 世界保存可能不完整");
+            }
+            HotRestoreHandoff.saved(saveSuccess);
 
-                    // 4. 延迟通知 MineBackup 主程序，确保客户端已完全断开
-                    // 使用单独线程避免阻塞服务器线程
-                    new Thread(() -> {
-                        try {
-                            // 等待一小段时间确保断开连接完成
-                            Thread.sleep(500);
-                            // KnotLink 新协议：只发送 WORLD_SAVE_AND_EXIT_COMPLETE，避免与旧信号重复触发
-                            OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, "WORLD_SAVE_AND_EXIT_COMPLETE");
-                            LOGGER.info("[MineBackup] 已发送 WORLD_SAVE_AND_EXIT_COMPLETE (单人游戏)");
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                    }).start();
+            // 踢出所有玩家
+            for (var player : playerList.toArray(new ServerPlayer[0])) {
+                try {
+                    player.connection.disconnect(kickMessage);
+                } catch (Exception e) {
+                    LOGGER.warn("[MineBackup] 踢出玩家 {} 时出现异常: {}", player.getName().getString(), e.getMessage());
                 }
-            });
-            return;
-        }
+            }
 
-        // ========== 收到还原完成信号 ==========
-        if ("restore_finished".equals(eventType) || "restore_success".equals(eventType)) {
-            String status = "restore_success".equals(eventType) ? "success" : eventData.getOrDefault("status", "success");
-            if ("success".equals(status)) {
-                String worldFromEvent = eventData.get("world");
-                if (isValidLevelId(worldFromEvent)) {
-                    String fallbackLevelId = worldFromEvent.trim();
-                    if (!isValidLevelId(HotRestoreState.levelIdToRejoin)) {
-                        HotRestoreState.levelIdToRejoin = fallbackLevelId;
-                    }
-                    if (!isValidLevelId(MineBackupClient.worldToRejoin)) {
-                        MineBackupClient.worldToRejoin = fallbackLevelId;
+            // 停止服务器；服务器完全停止并释放会话锁后（SERVER_STOPPED）才通知主程序开始还原
+            HotRestoreHandoff.serverStopping();
+            serverInstance.halt(false);
+        } else {
+            // 单人游戏逻辑（参考 QuickBackupM-Reforged 实现）
+            LOGGER.info("[MineBackup] 检测到单人游戏，保存并断开连接");
+
+            // 1. 获取当前世界存档文件夹名称
+            String levelId = resolveRejoinLevelId(serverInstance, worldFromEvent);
+            MineBackupClient.worldToRejoin = levelId;
+            HotRestoreState.levelIdToRejoin = levelId;
+            LOGGER.info("[MineBackup] 保存世界ID用于自动重连: {}", levelId);
+
+            // 2. 开始交接，记录即将被断开的玩家
+            var players = serverInstance.getPlayerList().getPlayers();
+            beginHandoff(players);
+
+            // 3. 保存游戏 - 使用同步保存确保数据完整
+            LOGGER.info("[MineBackup] 保存世界数据...");
+            boolean saveSuccess = serverInstance.saveAllChunks(true, true, true);
+            if (!saveSuccess) {
+                LOGGER.warn("[MineBackup] 世界保存可能不完整，但继续进行还原流程");
+            }
+            HotRestoreHandoff.saved(saveSuccess);
+
+            // 4. 踢出玩家（这将触发客户端断开连接，从而关闭集成服务器）
+            // 参考 QuickBackupM-Reforged: 使用 player.connection.disconnect()
+            // 集成服务器停止并释放会话锁后（SERVER_STOPPED）才通知主程序开始还原
+            if (!players.isEmpty()) {
+                Component kickMessage = Component.translatable("minebackup.message.restore.kick");
+                for (var player : players.toArray(new ServerPlayer[0])) {
+                    try {
+                        LOGGER.info("[MineBackup] 断开玩家连接: {}", player.getName().getString());
+                        player.connection.disconnect(kickMessage);
+                    } catch (Exception e) {
+                        LOGGER.warn("[MineBackup] 断开玩家 {} 时出现异常: {}", player.getName().getString(), e.getMessage());
                     }
                 }
-                MineBackupClient.readyToRejoin = true;
-                if (HotRestoreState.levelIdToRejoin != null && MineBackupClient.worldToRejoin == null) {
-                    MineBackupClient.worldToRejoin = HotRestoreState.levelIdToRejoin;
-                }
-                HotRestoreState.waitingForServerStopAck = false;
-                MineBackupClient.showRestoreSuccessOverlay();
-                LOGGER.info("[MineBackup] 还原成功，已标记客户端准备重新加入世界");
-            } else {
-                LOGGER.warn("[MineBackup] 主程序报告还原失败，status={}", status);
-                MineBackupClient.readyToRejoin = false;
-                HotRestoreState.reset();
             }
-            return;
         }
+    }
 
-        // ========== KnotLink 新协议：处理主程序请求重新加入世界 ==========
-        if ("rejoin_world".equals(eventType)) {
-            LOGGER.info("[MineBackup] 收到 rejoin_world 事件，触发客户端重连");
-            String worldFromEvent = eventData.get("world");
-            if (isValidLevelId(worldFromEvent)) {
-                String fallbackLevelId = worldFromEvent.trim();
-                if (!isValidLevelId(HotRestoreState.levelIdToRejoin)) {
-                    HotRestoreState.levelIdToRejoin = fallbackLevelId;
-                }
-                if (!isValidLevelId(MineBackupClient.worldToRejoin)) {
-                    MineBackupClient.worldToRejoin = fallbackLevelId;
-                }
-            }
+    /**
+     * 开始热还原交接：玩家全部断开、保存完成、服务器停止并释放会话锁后发送 WORLD_SAVE_AND_EXIT_COMPLETE
+     */
+    private void beginHandoff(List<ServerPlayer> players) {
+        Path sessionLock = serverInstance.getWorldPath(LevelResource.ROOT).resolve("session.lock").normalize();
+        List<UUID> uuids = new ArrayList<>(players.size());
+        for (ServerPlayer player : players) {
+            uuids.add(player.getUUID());
+        }
+        // KnotLink 新协议：只发送 WORLD_SAVE_AND_EXIT_COMPLETE，避免与旧信号重复触发
+        HotRestoreHandoff.begin(sessionLock, uuids,
+                () -> OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, "WORLD_SAVE_AND_EXIT_COMPLETE"));
+    }
+
+    // ========== 收到还原完成信号 ==========
+    private void onRestoreFinished(KnotLinkEvent event) {
+        // restore_success 本身即表示成功；restore_finished 未带 status 时按成功处理
+        boolean success = event.isType("restore_success")
+                || !event.has("status") || event.valueEquals("status", "success");
+        if (success) {
+            rememberWorldToRejoin(event);
+            MineBackupClient.readyToRejoin = true;
             if (HotRestoreState.levelIdToRejoin != null && MineBackupClient.worldToRejoin == null) {
                 MineBackupClient.worldToRejoin = HotRestoreState.levelIdToRejoin;
             }
-            if (!MineBackupClient.readyToRejoin && MineBackupClient.worldToRejoin != null) {
-                MineBackupClient.readyToRejoin = true;
-            }
             HotRestoreState.waitingForServerStopAck = false;
-            return;
+            MineBackupClient.showRestoreSuccessOverlay();
+            LOGGER.info("[MineBackup] 还原成功，已标记客户端准备重新加入世界");
+        } else {
+            LOGGER.warn("[MineBackup] 主程序报告还原失败，status={}", event.get("status"));
+            MineBackupClient.readyToRejoin = false;
+            HotRestoreState.reset();
         }
+    }
 
-        // 构建要广播的消息
-        final Component message = switch (eventType) {
-            case "backup_started" -> Component.translatable("minebackup.broadcast.backup.started",
-                getWorldDisplay(eventData));
-            case "restore_started" -> Component.translatable("minebackup.broadcast.restore.started",
-                getWorldDisplay(eventData));
-            case "backup_success" -> Component.translatable("minebackup.broadcast.backup.success",
-                getWorldDisplay(eventData), getFileDisplay(eventData));
-            case "backup_failed" -> Component.translatable("minebackup.broadcast.backup.failed",
-                getWorldDisplay(eventData), getErrorDisplay(eventData));
-            case "game_session_end" -> Component.translatable("minebackup.broadcast.session.end",
-                getWorldDisplay(eventData));
-            case "auto_backup_started" -> Component.translatable("minebackup.broadcast.auto_backup.started",
-                getWorldDisplay(eventData));
-            case "we_snapshot_completed" -> Component.translatable("minebackup.broadcast.we_snapshot.completed",
-                getWorldDisplay(eventData), getFileDisplay(eventData));
-            default -> null;
-        };
-
-        // 处理热备份事件
-        if ("pre_hot_backup".equals(eventType)) {
-            serverInstance.execute(() -> {
-                LOGGER.info("[MineBackup] 收到热备份请求，执行即时保存");
-                // 在热备份前触发 GCA 假人保存（如果存在）
-                GcaCompat.saveFakePlayersIfNeeded(serverInstance);
-                String worldName = serverInstance.getWorldData().getLevelName();
-                serverInstance.getPlayerList().broadcastSystemMessage(
-                    Component.translatable("minebackup.broadcast.hot_backup.request", worldName), false);
-                // 使用“完整保存”路径，确保 level.dat 与区块文件同步落盘
-                boolean allSaved = saveAllDataForHotBackup(serverInstance);
-                if (!allSaved) {
-                    LOGGER.warn("[MineBackup] 部分数据保存失败，世界: {}", worldName);
-                    serverInstance.getPlayerList().broadcastSystemMessage(
-                        Component.translatable("minebackup.broadcast.hot_backup.warn", worldName), false);
-                }
-                LOGGER.info("[MineBackup] 世界数据保存完成");
-                serverInstance.getPlayerList().broadcastSystemMessage(
-                    Component.translatable("minebackup.broadcast.hot_backup.complete"), false);
-                // KnotLink 新协议：通知主程序世界保存已完成
-                OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, "WORLD_SAVED");
-                LOGGER.info("[MineBackup] 已发送 WORLD_SAVED 通知");
-            });
-        } else if ("game_session_start".equals(eventType)) {
-            LOGGER.info("[MineBackup] 检测到游戏会话开始，世界: {}", getWorldDisplay(eventData).getString());
+    // ========== KnotLink 新协议：处理主程序请求重新加入世界 ==========
+    private void onRejoinWorld(KnotLinkEvent event) {
+        LOGGER.info("[MineBackup] 收到 rejoin_world 事件，触发客户端重连");
+        rememberWorldToRejoin(event);
+        if (HotRestoreState.levelIdToRejoin != null && MineBackupClient.worldToRejoin == null) {
+            MineBackupClient.worldToRejoin = HotRestoreState.levelIdToRejoin;
         }
+        if (!MineBackupClient.readyToRejoin && MineBackupClient.worldToRejoin != null) {
+            MineBackupClient.readyToRejoin = true;
+        }
+        HotRestoreState.waitingForServerStopAck = false;
+    }
 
-        // 广播消息给所有玩家
-        if (message != null) {
-            serverInstance.execute(() -> serverInstance.getPlayerList().broadcastSystemMessage(message, false));
+    // 事件中带有合法的存档名时，作为尚未记录重连目标时的后备
+    private void rememberWorldToRejoin(KnotLinkEvent event) {
+        if (event.isBlank("world")) {
+            return;
+        }
+        String worldFromEvent = event.get("world");
+        if (isValidLevelId(worldFromEvent)) {
+            String fallbackLevelId = worldFromEvent.trim();
+            if (!isValidLevelId(HotRestoreState.levelIdToRejoin)) {
+                HotRestoreState.levelIdToRejoin = fallbackLevelId;
+            }
+            if (!isValidLevelId(MineBackupClient.worldToRejoin)) {
+                MineBackupClient.worldToRejoin = fallbackLevelId;
+            }
+        }
+    }
+
+    // 处理热备份事件
+    private void onPreHotBackup(KnotLinkEvent event) {
+        LOGGER.info("[MineBackup] 收到热备份请求，执行即时保存");
+        // 在热备份前触发 GCA 假人保存（如果存在）
+        GcaCompat.saveFakePlayersIfNeeded(serverInstance);
+        String worldName = serverInstance.getWorldData().getLevelName();
+        NotificationAggregator.progress(
+            Component.translatable("minebackup.broadcast.hot_backup.request", worldName), 0.3F);
+        // 上一次备份的 save-off 窗口仍未关闭时先恢复保存，随后的保存会写入窗口期间的修改
+        MinecraftServer server = serverInstance;
+        SaveOffWindow.close(server, "新的热备份请求", false);
+        // 使用“完整保存”路径，确保 level.dat 与区块文件同步落盘；增量模式下区块保存分摊到之后的多个 tick
+        HotBackupSaver.start(server, Config.getHotBackupSaveMode(),
+                () -> saveAllDataForHotBackup(server),
+                (allSaved, gameTime) -> onHotBackupSaved(worldName, allSaved, gameTime));
+    }
+
+    /**
+     * 热备份前的保存已全部落盘，通知主程序开始复制存档
+     */
+    private void onHotBackupSaved(String worldName, boolean allSaved, long gameTime) {
+        if (!allSaved) {
+            LOGGER.warn("[MineBackup] 部分数据保存失败，世界: {}", worldName);
+            NotificationAggregator.warn(
+                Component.translatable("minebackup.broadcast.hot_backup.warn", worldName));
         }
+        LOGGER.info("[MineBackup] 世界数据保存完成");
+        MineBackupEvents.post(new MineBackupEvent.HotBackupSaved(worldName, allSaved));
+        NotificationAggregator.progress(
+            Component.translatable("minebackup.broadcast.hot_backup.complete"), 0.6F);
+        // 主程序复制存档期间暂停世界保存，直到收到备份结果
+        SaveOffWindow.open(serverInstance);
+        // KnotLink 新协议：通知主程序世界保存已完成；协商了 savetime 时附带保存时的游戏刻
+        String saved = KnotLinkFeatures.isEnabled(KnotLinkFeatures.SAVE_TIME) ? "WORLD_SAVED " + gameTime : "WORLD_SAVED";
+        // 协商了 manifest 时附带本代写入过的区域文件清单，主程序据此只读取改动过的文件；
+        // 清单在后台写出，写完后再发送 WORLD_SAVED（save-off 窗口期间区域文件不会变化）
+        if (KnotLinkFeatures.isEnabled(KnotLinkFeatures.MANIFEST)) {
+            String request = saved;
+            DirtyRegionTracker.snapshot().thenAccept(manifest ->
+                    sendWorldSaved(manifest != null ? request + " manifest=" + manifest.toUri() : request, gameTime));
+        } else {
+            sendWorldSaved(saved, gameTime);
+        }
+    }
+
+    private static void sendWorldSaved(String request, long gameTime) {
+        OpenSocketQuerier.query(QUERIER_APP_ID, QUERIER_SOCKET_ID, request);
+        LOGGER.info("[MineBackup] 已发送 WORLD_SAVED 通知（游戏刻 {}）", gameTime);
+    }
+
+    private static void drainControlEvents() {
+        EVENT_QUEUE.drainControl();
+    }
+
+    /**
+     * 广播事件队列，用于查看排队情况
+     */
+    static KnotLinkEventQueue getEventQueue() {
+        return EVENT_QUEUE;
+    }
+
+    /**
+     * 当前的 KnotLink 订阅器，服务器未启动时为 null
+     */
+    static SignalSubscriber getKnotLinkSubscriber() {
+        return knotLinkSubscriber;
     }
 
     /**
@@ -0,0 +1,285 @@
+package com.leafuke.minebackup;
+
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerBossEvent;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.BossEvent;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * 备份通知聚合器（仅在服务器线程上使用）
+ *
+ * 同一次备份 / 还原过程中的多个事件（开始、热备份保存、完成或失败）合并为一条“当前进度”，
+ * 每个聚合窗口最多向玩家推送一次最新状态，而不是每个事件都向所有玩家发送聊天消息。
+ * 玩家可以选择 boss 栏、动作栏、聊天栏或关闭通知；每位玩家每分钟收到的通知更新数量有上限，
+ * 超出时推迟到之后的窗口，届时只发送最新状态。
+ */
+final class NotificationAggregator {
+    private static final String PREFERENCES_FILE = "minebackup-notify.properties";
+    // 聚合窗口（tick），窗口内的多次更新只推送最后一次
+    private static final int WINDOW_TICKS = 20;
+    // 完成后 boss 栏继续显示的时间（tick）
+    private static final int HIDE_AFTER_TICKS = 100;
+    private static final long RATE_WINDOW_MS = 60_000L;
+
+    enum Mode {
+        BOSSBAR,
+        ACTIONBAR,
+        CHAT,
+        OFF;
+
+        String id() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        static Mode parse(String value) {
+            if (value == null) return null;
+            for (Mode mode : values()) {
+                if (mode.id().equals(value.trim().toLowerCase(Locale.ROOT))) return mode;
+            }
+            return null;
+        }
+    }
+
+    // 当前进度
+    private static Component title = Component.empty();
+    private static float progress = 0.0F;
+    private static BossEvent.BossBarColor color = BossEvent.BossBarColor.YELLOW;
+    private static boolean finished = true;
+    private static int finishedAtTick = 0;
+    // 每次更新递增，玩家与 boss 栏各自记录已经推送到的版本
+    private static long version = 0L;
+
+    private static ServerBossEvent bossBar;
+    private static long bossBarVersion = 0L;
+    private static RateLimiter bossBarLimiter;
+
+    private static final Map<UUID, PlayerState> players = new HashMap<>();
+    // 玩家自行选择的通知方式，未选择的玩家使用配置中的默认方式
+    private static final Map<UUID, Mode> preferences = new HashMap<>();
+
+    private NotificationAggregator() {}
+
+    /**
+     * 一次备份 / 还原开始，重新计算进度
+     */
+    static void start(Component message) {
+        update(message, 0.0F, BossEvent.BossBarColor.YELLOW, false);
+    }
+
+    /**
+     * 进行中的阶段性进展；上一次过程已经结束时视为新过程开始
+     */
+    static void progress(Component message, float value) {
+        if (finished) {
+            update(message, value, BossEvent.BossBarColor.YELLOW, false);
+        } else {
+            update(message, Math.max(progress, value), color, false);
+        }
+    }
+
+    /**
+     * 进行中出现的警告，进度不变，颜色变为红色
+     */
+    static void warn(Component message) {
+        update(message, progress, BossEvent.BossBarColor.RED, false);
+    }
+
+    /**
+     * 一次备份 / 还原结束
+     */
+    static void finish(Component message, boolean success) {
+        update(message, 1.0F, success ? BossEvent.BossBarColor.GREEN : BossEvent.BossBarColor.RED, true);
+    }
+
+    /**
+     * 与进度无关的一般提示
+     */
+    static void notice(Component message) {
+        update(message, 1.0F, BossEvent.BossBarColor.WHITE, true);
+    }
+
+    private static void update(Component message, float value, BossEvent.BossBarColor barColor, boolean done) {
+        title = message;
+        progress = value;
+        color = barColor;
+        finished = done;
+        finishedAtTick = -1;
+        version++;
+    }
+
+    /**
+     * 每个服务器 tick 结束时调用，按聚合窗口推送最新状态
+     */
+    static void tick(MinecraftServer server) {
+        int tick = server.getTickCount();
+        if (tick % WINDOW_TICKS != 0) return;
+        long now = System.currentTimeMillis();
+        int limit = Config.getNotificationsPerMinute();
+        if (bossBar == null) {
+            bossBar = new ServerBossEvent(title, color, BossEvent.BossBarOverlay.PROGRESS);
+            bossBar.setVisible(false);
+            bossBarLimiter = new RateLimiter(limit);
+        }
+
+        var online = server.getPlayerList().getPlayers();
+        for (ServerPlayer player : online) {
+            UUID uuid = player.getUUID();
+            PlayerState state = players.get(uuid);
+            if (state == null) {
+                // 新加入的玩家不补发加入前的通知
+                state = new PlayerState(limit, version);
+                players.put(uuid, state);
+            }
+            Mode mode = getMode(uuid);
+            if (mode == Mode.BOSSBAR) {
+                bossBar.addPlayer(player);
+                continue;
+            }
+            bossBar.removePlayer(player);
+            if (mode == Mode.OFF || state.deliveredVersion >= version || !state.limiter.tryAcquire(now)) continue;
+            if (mode == Mode.ACTIONBAR) {
+                player.displayClientMessage(title, true);
+            } else {
+                player.sendSystemMessage(title);
+            }
+            state.deliveredVersion = version;
+        }
+        if (players.size() > online.size()) {
+            players.keySet().removeIf(uuid -> server.getPlayerList().getPlayer(uuid) == null);
+        }
+        // 离线或重新登录的玩家留下的旧 ServerPlayer 不会自动移出 boss 栏，需要逐个清理
+        for (ServerPlayer member : List.copyOf(bossBar.getPlayers())) {
+            if (server.getPlayerList().getPlayer(member.getUUID()) != member || !players.containsKey(member.getUUID())) {
+                bossBar.removePlayer(member);
+            }
+        }
+
+        // boss 栏对所有成员一起更新，整体按同样的上限限流
+        if (bossBarVersion < version && !bossBar.getPlayers().isEmpty() && bossBarLimiter.tryAcquire(now)) {
+            bossBar.setName(title);
+            bossBar.setProgress(progress);
+            bossBar.setColor(color);
+            bossBar.setVisible(true);
+            bossBarVersion = version;
+        }
+        if (finished && bossBarVersion == version && bossBar.isVisible()) {
+            if (finishedAtTick < 0) {
+                finishedAtTick = tick;
+            } else if (tick - finishedAtTick >= HIDE_AFTER_TICKS) {
+                bossBar.setVisible(false);
+            }
+        }
+    }
+
+    /**
+     * 服务器停止时清理 boss 栏与玩家状态
+     */
+    static void reset() {
+        if (bossBar != null) {
+            bossBar.removeAllPlayers();
+            bossBar = null;
+        }
+        players.clear();
+        title = Component.empty();
+        progress = 0.0F;
+        color = BossEvent.BossBarColor.YELLOW;
+        finished = true;
+        finishedAtTick = 0;
+        version = 0L;
+        bossBarVersion = 0L;
+    }
+
+    static Mode getMode(UUID player) {
+        Mode mode = preferences.get(player);
+        return mode != null ? mode : Config.getNotificationMode();
+    }
+
+    /**
+     * 设置玩家的通知方式，传入 null 恢复为默认方式
+     */
+    static void setMode(UUID player, Mode mode) {
+        if (mode == null) {
+            preferences.remove(player);
+        } else {
+            preferences.put(player, mode);
+        }
+        savePreferences();
+    }
+
+    /**
+     * 从配置目录加载玩家的通知方式
+     */
+    static void loadPreferences() {
+        preferences.clear();
+        Path path = FabricLoader.getInstance().getConfigDir().resolve(PREFERENCES_FILE);
+        if (!Files.exists(path)) return;
+        try (FileInputStream fis = new FileInputStream(path.toFile())) {
+            Properties props = new Properties();
+            props.load(fis);
+            for (String key : props.stringPropertyNames()) {
+                Mode mode = Mode.parse(props.getProperty(key));
+                if (mode != null) {
+                    preferences.put(UUID.fromString(key), mode);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            MineBackup.LOGGER.error("[MineBackup] 加载通知设置失败", e);
+        }
+    }
+
+    private static void savePreferences() {
+        Path path = FabricLoader.getInstance().getConfigDir().resolve(PREFERENCES_FILE);
+        try (FileOutputStream fos = new FileOutputStream(path.toFile())) {
+            Properties props = new Properties();
+            for (Map.Entry<UUID, Mode> entry : preferences.entrySet()) {
+                props.setProperty(entry.getKey().toString(), entry.getValue().id());
+            }
+            props.store(fos, "MineBackup notification preferences");
+        } catch (IOException e) {
+            MineBackup.LOGGER.error("[MineBackup] 保存通知设置失败", e);
+        }
+    }
+
+    private static final class PlayerState {
+        final RateLimiter limiter;
+        long deliveredVersion;
+
+        PlayerState(int limit, long deliveredVersion) {
+            this.limiter = new RateLimiter(limit);
+            this.deliveredVersion = deliveredVersion;
+        }
+    }
+
+    /**
+     * 滑动窗口限流：记录最近 limit 次发送的时间，最早一次仍在一分钟内时拒绝
+     */
+    private static final class RateLimiter {
+        private final long[] sentAt;
+        private int next = 0;
+
+        RateLimiter(int limit) {
+            this.sentAt = new long[Math.max(1, limit)];
+        }
+
+        boolean tryAcquire(long now) {
+            if (sentAt[next] != 0L && now - sentAt[next] < RATE_WINDOW_MS) return false;
+            sentAt[next] = now;
+            next = (next + 1) % sentAt.length;
+            return true;
+        }
+    }
+}
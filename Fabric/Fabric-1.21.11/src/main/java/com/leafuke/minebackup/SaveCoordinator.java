@@ -0,0 +1,103 @@
+package com.leafuke.minebackup;
+
+import com.leafuke.minebackup.mixin.ChunkMapAccessor;
+import com.leafuke.minebackup.mixin.EntityStorageAccessor;
+import com.leafuke.minebackup.mixin.PersistentEntitySectionManagerAccessor;
+import com.leafuke.minebackup.mixin.SectionStorageAccessor;
+import com.leafuke.minebackup.mixin.ServerLevelAccessor;
+import com.leafuke.minebackup.mixin.SimpleRegionStorageAccessor;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.storage.EntityStorage;
+import net.minecraft.world.level.chunk.storage.SimpleRegionStorage;
+import net.minecraft.world.level.entity.EntityPersistentStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按维度并行刷盘的世界保存（/mb save 与 /mb quicksave）
+ *
+ * 原先对每个维度依次调用 level.save(null, true, false)，服务器线程要等上一个维度的区域文件全部写完并刷盘才开始下一个，
+ * 总耗时是所有维度之和。这里服务器线程只负责依次序列化各维度的游戏状态（复制区块、实体与维度数据并提交写入），
+ * 各维度区块、实体、兴趣点的区域文件写入与刷盘随后由原版各存储自己的 IO 工作线程并发完成，服务器线程不再逐个等待。
+ */
+final class SaveCoordinator {
+
+    /**
+     * 单个维度的保存耗时
+     * @param serializeNanos 服务器线程上序列化并提交写入的时间
+     * @param flushNanos 提交后到该维度所有区域文件写完并刷盘的时间
+     */
+    record DimensionTiming(String dimension, long serializeNanos, long flushNanos) {}
+
+    private SaveCoordinator() {}
+
+    /**
+     * 保存所有维度（在服务器线程上调用）
+     * @return 所有维度都已落盘时完成，结果按维度顺序给出耗时；完成回调运行在 IO 线程上
+     */
+    static CompletableFuture<List<DimensionTiming>> saveAll(MinecraftServer server) {
+        List<CompletableFuture<DimensionTiming>> futures = new ArrayList<>();
+        for (ServerLevel level : server.getAllLevels()) {
+            long begin = System.nanoTime();
+            submitDirtyChunks(level);
+            // 不刷盘：维度数据、实体与其余区块只提交写入
+            level.save(null, false, false);
+            long serialized = System.nanoTime();
+            String dimension = dimensionName(level);
+            futures.add(flush(level).thenApply(ignored ->
+                    new DimensionTiming(dimension, serialized - begin, System.nanoTime() - serialized)));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * 直接提交所有有未保存修改的区块；原版不刷盘的保存对刚保存过的区块有冷却时间，会漏掉它们之后的修改
+     * @return 提交的区块数
+     */
+    static int submitDirtyChunks(ServerLevel level) {
+        ChunkMapAccessor chunkMap = (ChunkMapAccessor) level.getChunkSource().chunkMap;
+        int submitted = 0;
+        for (ChunkHolder holder : chunkMap.minebackup$getChunks()) {
+            ChunkAccess chunk = holder.getLatestChunk();
+            if (chunk != null && chunk.isUnsaved() && chunkMap.minebackup$save(chunk)) {
+                submitted++;
+            }
+        }
+        return submitted;
+    }
+
+    /**
+     * 该维度区块、实体、兴趣点的区域文件存储：之前提交的写入全部完成并刷盘时完成
+     */
+    static CompletableFuture<Void> flush(ServerLevel level) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(3);
+        futures.add(synchronize(level.getChunkSource().chunkMap));
+        EntityPersistentStorage<?> entities = ((PersistentEntitySectionManagerAccessor)
+                ((ServerLevelAccessor) level).minebackup$getEntityManager()).minebackup$getPermanentStorage();
+        if (entities instanceof EntityStorage entityStorage) {
+            futures.add(synchronize(((EntityStorageAccessor) entityStorage).minebackup$getStorage()));
+        }
+        futures.add(synchronize(((SectionStorageAccessor) level.getPoiManager()).minebackup$getStorage()));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private static CompletableFuture<Void> synchronize(SimpleRegionStorage storage) {
+        return ((SimpleRegionStorageAccessor) storage).minebackup$getWorker().synchronize(true);
+    }
+
+    /**
+     * 维度 ID，例如 minecraft:the_nether
+     */
+    static String dimensionName(ServerLevel level) {
+        // ResourceKey.toString 形如 "ResourceKey[minecraft:dimension / minecraft:the_nether]"
+        String key = level.dimension().toString();
+        int start = key.lastIndexOf(" / ");
+        return start >= 0 && key.endsWith("]") ? key.substring(start + 3, key.length() - 1) : key;
+    }
+}
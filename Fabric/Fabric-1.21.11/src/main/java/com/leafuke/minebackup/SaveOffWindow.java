@@ -0,0 +1,91 @@
+package com.leafuke.minebackup;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 外部备份复制期间的“save-off”窗口（仅在服务器线程上使用）
+ *
+ * 发送 WORLD_SAVED 后主程序开始复制存档，此时原版的自动保存和区块卸载仍会改写区域文件，导致主程序读到写了一半的文件。
+ * 窗口打开时与 /save-off 一样为各维度设置 noSave，直到收到 backup_success / backup_failed 或超时后恢复原值；
+ * 窗口期间产生的修改只留在内存中，关闭时交给 {@link HotBackupSaver#catchUp} 按 tick 预算补写，避免一次性卡顿。
+ */
+final class SaveOffWindow {
+    // 打开窗口前各维度原本的 noSave（管理员可能已经手动 /save-off）
+    private static final Map<ServerLevel, Boolean> previous = new IdentityHashMap<>();
+    private static long openedAt;
+    private static boolean open = false;
+
+    private SaveOffWindow() {}
+
+    static boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * 打开窗口（WORLD_SAVED 发出时调用）
+     */
+    static void open(MinecraftServer server) {
+        if (open || Config.getSaveOffTimeoutSeconds() <= 0) return;
+        boolean changed = false;
+        for (ServerLevel level : server.getAllLevels()) {
+            previous.put(level, level.noSave);
+            changed |= !level.noSave;
+            level.noSave = true;
+        }
+        if (!changed) {
+            // 所有维度本来就已关闭保存，无需接管
+            previous.clear();
+            return;
+        }
+        open = true;
+        openedAt = System.nanoTime();
+        MineBackup.LOGGER.info("[MineBackup] 主程序复制存档期间暂停世界保存（最长 {} 秒）", Config.getSaveOffTimeoutSeconds());
+    }
+
+    /**
+     * 关闭窗口，恢复保存并补写窗口期间产生的修改
+     * @param reason 关闭原因，仅用于日志
+     * @param catchUp 是否补写；随后马上会有完整保存时（例如新的热备份）无需补写
+     */
+    static void close(MinecraftServer server, String reason, boolean catchUp) {
+        if (!open) return;
+        restore();
+        MineBackup.LOGGER.info("[MineBackup] 恢复世界保存（{}），暂停了 {} 秒",
+                reason, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - openedAt));
+        if (catchUp && server != null) {
+            HotBackupSaver.catchUp(server);
+        }
+    }
+
+    /**
+     * 每个服务器 tick 结束时调用，检查安全超时
+     */
+    static void tick(MinecraftServer server) {
+        if (open && System.nanoTime() - openedAt >= TimeUnit.SECONDS.toNanos(Config.getSaveOffTimeoutSeconds())) {
+            MineBackup.LOGGER.warn("[MineBackup] {} 秒内未收到备份结果，自动恢复世界保存", Config.getSaveOffTimeoutSeconds());
+            close(server, "超时", true);
+        }
+    }
+
+    /**
+     * 服务器停止时恢复原值，不补写（停止过程本身会完整保存世界）
+     */
+    static void reset() {
+        if (open) {
+            restore();
+        }
+    }
+
+    private static void restore() {
+        for (Map.Entry<ServerLevel, Boolean> entry : previous.entrySet()) {
+            entry.getKey().noSave = entry.getValue();
+        }
+        previous.clear();
+        open = false;
+    }
+}
@@ -0,0 +1,49 @@
+package com.leafuke.minebackup.api;
+
+/**
+ * MineBackup 对外发布的类型化事件。
+ * 世界名与文件名来自 MineBackup 主程序的广播，主程序未提供时为 null。
+ * 通过 {@link MineBackupEvents#subscribe} 按类型订阅。
+ */
+public sealed interface MineBackupEvent {
+
+    /**
+     * 主程序开始备份世界（automatic 为 true 表示自动备份任务触发）
+     */
+    record BackupStarted(String world, boolean automatic) implements MineBackupEvent {}
+
+    /**
+     * 备份完成，file 为生成的备份文件名
+     */
+    record BackupCompleted(String world, String file) implements MineBackupEvent {}
+
+    record BackupFailed(String world, String error) implements MineBackupEvent {}
+
+    /**
+     * 主程序请求热备份，模组即将在服务器线程上完整保存世界
+     */
+    record HotBackupRequested(String world) implements MineBackupEvent {}
+
+    /**
+     * 热备份前的保存已经完成（complete 为 false 表示部分数据保存失败），主程序随后开始复制存档
+     */
+    record HotBackupSaved(String world, boolean complete) implements MineBackupEvent {}
+
+    /**
+     * 主程序请求热还原，世界即将保存并关闭
+     */
+    record RestorePrepared(String world) implements MineBackupEvent {}
+
+    record RestoreStarted(String world) implements MineBackupEvent {}
+
+    record RestoreFinished(String world, boolean success) implements MineBackupEvent {}
+
+    /**
+     * WorldEdit 快照已生成
+     */
+    record SnapshotCompleted(String world, String file) implements MineBackupEvent {}
+
+    record SessionStarted(String world) implements MineBackupEvent {}
+
+    record SessionEnded(String world) implements MineBackupEvent {}
+}
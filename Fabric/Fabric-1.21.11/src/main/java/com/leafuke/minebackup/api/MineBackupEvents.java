@@ -0,0 +1,162 @@
+package com.leafuke.minebackup.api;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 供其他模组订阅 MineBackup 事件的入口。
+ *
+ * 每个订阅者拥有独立的 {@link SubmissionPublisher}：事件在订阅者指定的执行器上投递，
+ * 遵循 {@link Flow} 的背压语义（订阅者 request 多少投递多少），缓冲区满时丢弃该订阅者的新事件并计数，
+ * 发布方（KnotLink 事件线程或服务器线程）永远不会因为某个订阅者处理缓慢而阻塞。
+ *
+ * 例如需要大量磁盘读写的模组，可以在 {@link MineBackupEvent.BackupStarted} / {@link MineBackupEvent.HotBackupRequested}
+ * 时暂停自己的写入，在 {@link MineBackupEvent.BackupCompleted} / {@link MineBackupEvent.BackupFailed} 后恢复，
+ * 或随时通过 {@link #isBackupInProgress()} 查询。
+ */
+public final class MineBackupEvents {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    public static final int DEFAULT_BUFFER_SIZE = Flow.defaultBufferSize();
+
+    private static final List<Listener<?>> listeners = new CopyOnWriteArrayList<>();
+    private static volatile boolean backupInProgress = false;
+
+    private MineBackupEvents() {}
+
+    /**
+     * 订阅一种事件（传入 MineBackupEvent.class 订阅全部事件）
+     * @param type 事件类型
+     * @param subscriber 订阅者，按 Flow 规范通过 Subscription.request 控制投递数量
+     * @param executor 投递事件所用的执行器，null 时使用公共 ForkJoinPool；不要传入服务器线程
+     * @param bufferSize 每个订阅者最多缓冲的事件数
+     * @return 用于取消订阅的句柄
+     */
+    public static <E extends MineBackupEvent> Registration subscribe(Class<E> type, Flow.Subscriber<? super E> subscriber,
+                                                                    Executor executor, int bufferSize) {
+        Objects.requireNonNull(type, "type");
+        Objects.requireNonNull(subscriber, "subscriber");
+        Listener<E> listener = new Listener<>(type,
+                new SubmissionPublisher<>(executor != null ? executor : ForkJoinPool.commonPool(), Math.max(1, bufferSize)));
+        listener.publisher.subscribe(subscriber);
+        listeners.add(listener);
+        return listener;
+    }
+
+    /**
+     * 以回调方式订阅：每处理完一个事件再请求下一个
+     */
+    public static <E extends MineBackupEvent> Registration subscribe(Class<E> type, Consumer<? super E> handler, Executor executor) {
+        Objects.requireNonNull(handler, "handler");
+        return subscribe(type, new Flow.Subscriber<E>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(E event) {
+                try {
+                    handler.accept(event);
+                } catch (RuntimeException e) {
+                    LOGGER.error("MineBackup event listener failed on {}", event, e);
+                }
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                LOGGER.error("MineBackup event subscription failed", throwable);
+            }
+
+            @Override
+            public void onComplete() {}
+        }, executor, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 主程序是否正在备份或还原世界（从开始事件到完成 / 失败事件之间）
+     */
+    public static boolean isBackupInProgress() {
+        return backupInProgress;
+    }
+
+    /**
+     * 发布事件，由 MineBackup 自身调用
+     */
+    public static void post(MineBackupEvent event) {
+        if (event instanceof MineBackupEvent.BackupStarted || event instanceof MineBackupEvent.HotBackupRequested
+                || event instanceof MineBackupEvent.RestorePrepared || event instanceof MineBackupEvent.RestoreStarted) {
+            backupInProgress = true;
+        } else if (event instanceof MineBackupEvent.BackupCompleted || event instanceof MineBackupEvent.BackupFailed
+                || event instanceof MineBackupEvent.RestoreFinished) {
+            backupInProgress = false;
+        }
+        for (Listener<?> listener : listeners) {
+            listener.offer(event);
+        }
+    }
+
+    /**
+     * 订阅句柄
+     */
+    public interface Registration extends AutoCloseable {
+        /**
+         * 因缓冲区已满而丢弃的事件数
+         */
+        long getDropped();
+
+        /**
+         * 取消订阅，订阅者随后收到 onComplete
+         */
+        @Override
+        void close();
+    }
+
+    private static final class Listener<E extends MineBackupEvent> implements Registration {
+        private final Class<E> type;
+        private final SubmissionPublisher<E> publisher;
+        private final AtomicLong dropped = new AtomicLong();
+
+        Listener(Class<E> type, SubmissionPublisher<E> publisher) {
+            this.type = type;
+            this.publisher = publisher;
+        }
+
+        void offer(MineBackupEvent event) {
+            if (!type.isInstance(event) || publisher.isClosed()) {
+                return;
+            }
+            publisher.offer(type.cast(event), (subscriber, item) -> {
+                if (dropped.getAndIncrement() == 0) {
+                    LOGGER.warn("MineBackup event listener is not keeping up, dropping events (first: {})", item);
+                }
+                return false;
+            });
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        @Override
+        public void close() {
+            listeners.remove(this);
+            publisher.close();
+        }
+    }
+}
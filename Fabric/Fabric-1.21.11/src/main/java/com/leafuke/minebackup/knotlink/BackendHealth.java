@@ -0,0 +1,202 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+/**
+ * 后端健康状态与熔断器。
+ *
+ * 由查询结果、订阅连接的心跳与断线情况共同驱动：
+ * CLOSED（正常）下连续失败达到阈值后进入 OPEN，此时查询直接返回 ERROR:BACKEND_OFFLINE，
+ * 不再尝试建连等待；冷却时间过后进入 HALF_OPEN，只放行一个探测请求，
+ * 成功则恢复 CLOSED，失败则以更长的冷却时间回到 OPEN。
+ */
+public final class BackendHealth {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long MIN_OPEN_MS = 2_000L;
+    private static final long MAX_OPEN_MS = 30_000L;
+    // 延迟的指数滑动平均系数
+    private static final double EWMA_ALPHA = 0.2;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAtMs = 0L;
+    private long openDurationMs = MIN_OPEN_MS;
+    private boolean probeInFlight = false;
+
+    // 统计信息（在 this 上同步）
+    private long successes = 0L;
+    private long failures = 0L;
+    private long rejected = 0L;
+    private long lastLatencyMicros = -1L;
+    private double averageLatencyMicros = -1.0;
+    private long maxLatencyMicros = 0L;
+    private volatile long lastHeartbeatAtMs = 0L;
+
+    BackendHealth() {}
+
+    /**
+     * 是否允许发出请求；OPEN 状态下冷却时间已过时转为 HALF_OPEN 并放行一个探测请求
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAtMs >= openDurationMs) {
+                    state = State.HALF_OPEN;
+                    probeInFlight = true;
+                    LOGGER.info("KnotLink backend circuit half-open, sending a probe request.");
+                    return true;
+                }
+                rejected++;
+                return false;
+            default:
+                if (!probeInFlight) {
+                    probeInFlight = true;
+                    return true;
+                }
+                rejected++;
+                return false;
+        }
+    }
+
+    /**
+     * 根据查询结果更新状态：通信失败/无响应计为失败，本地繁忙不计入，其它响应（包括业务错误）都说明后端在线
+     */
+    void record(QueryResponse response, long latencyNanos) {
+        String text = response.isError() && response.byteLength() < 64 ? response.asString() : null;
+        if ("ERROR:COMMUNICATION_FAILED".equals(text) || "ERROR:NO_RESPONSE".equals(text)) {
+            recordFailure(text.substring(6));
+        } else if ("ERROR:BACKEND_BUSY".equals(text)) {
+            releaseProbe();
+        } else {
+            recordSuccess(latencyNanos);
+        }
+    }
+
+    synchronized void recordSuccess(long latencyNanos) {
+        successes++;
+        long micros = latencyNanos / 1000;
+        lastLatencyMicros = micros;
+        averageLatencyMicros = averageLatencyMicros < 0 ? micros : averageLatencyMicros + EWMA_ALPHA * (micros - averageLatencyMicros);
+        maxLatencyMicros = Math.max(maxLatencyMicros, micros);
+        close();
+    }
+
+    synchronized void recordFailure(String reason) {
+        failures++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            // 探测失败，加长冷却时间
+            openDurationMs = Math.min(MAX_OPEN_MS, openDurationMs * 2);
+            open(reason);
+        } else if (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+            openDurationMs = MIN_OPEN_MS;
+            open(reason);
+        }
+    }
+
+    private synchronized void releaseProbe() {
+        probeInFlight = false;
+    }
+
+    /**
+     * 订阅连接的心跳结果
+     * @param answered 上一次心跳是否收到了 heartbeat_response
+     */
+    void recordHeartbeat(boolean answered) {
+        if (answered) {
+            lastHeartbeatAtMs = System.currentTimeMillis();
+        } else {
+            recordFailure("HEARTBEAT_MISSED");
+        }
+    }
+
+    /**
+     * 订阅连接断开：KnotLink 服务端已不可达，直接熔断，避免后续请求逐个等待超时
+     */
+    synchronized void recordSubscriberLost() {
+        if (state != State.OPEN) {
+            openDurationMs = MIN_OPEN_MS;
+            open("SUBSCRIBER_DISCONNECTED");
+        }
+    }
+
+    /**
+     * 收到主程序发来的广播事件，说明后端已经在线
+     */
+    synchronized void recordBackendActivity() {
+        lastHeartbeatAtMs = System.currentTimeMillis();
+        if (state != State.CLOSED) {
+            close();
+        }
+    }
+
+    private void open(String reason) {
+        if (state != State.OPEN) {
+            LOGGER.warn("KnotLink backend marked offline ({}), failing fast for {} ms.", reason, openDurationMs);
+        }
+        state = State.OPEN;
+        openedAtMs = System.currentTimeMillis();
+        probeInFlight = false;
+    }
+
+    private void close() {
+        if (state != State.CLOSED) {
+            LOGGER.info("KnotLink backend is reachable again.");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openDurationMs = MIN_OPEN_MS;
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getSuccesses() { return successes; }
+    public synchronized long getFailures() { return failures; }
+    public synchronized long getRejected() { return rejected; }
+
+    /**
+     * 最近一次成功查询的往返延迟（微秒），没有记录时为 -1
+     */
+    public synchronized long getLastLatencyMicros() {
+        return lastLatencyMicros;
+    }
+
+    public synchronized long getAverageLatencyMicros() {
+        return averageLatencyMicros < 0 ? -1L : (long) averageLatencyMicros;
+    }
+
+    public synchronized long getMaxLatencyMicros() {
+        return maxLatencyMicros;
+    }
+
+    /**
+     * 距最近一次心跳响应或广播事件的毫秒数，从未收到时为 -1
+     */
+    public long getMillisSinceLastHeartbeat() {
+        long last = lastHeartbeatAtMs;
+        return last == 0L ? -1L : System.currentTimeMillis() - last;
+    }
+
+    public synchronized String describe() {
+        return String.format("state=%s, failures=%d/%d, ok=%d, rejected=%d, lastLatency=%dus, avgLatency=%dus",
+                state, consecutiveFailures, failures, successes, rejected, lastLatencyMicros, getAverageLatencyMicros());
+    }
+}
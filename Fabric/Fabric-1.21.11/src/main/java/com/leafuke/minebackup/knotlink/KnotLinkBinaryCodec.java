@@ -0,0 +1,426 @@
+package com.leafuke.minebackup.knotlink;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * KnotLink 紧凑二进制编码（握手协商的 bin1 特性）。
+ *
+ * 帧格式：0xB1 | 版本号（1 字节）| varint 正文长度 | 正文。
+ * 0xB1 在 UTF-8 中只能作为续字节出现，不可能是一条文本消息的开头，
+ * 因此二进制帧可以和 heartbeat_response 等文本消息混在同一条流中。
+ *
+ * 正文：
+ * <pre>
+ *   事件   = 0x01 | varint 事件类型 ID | varint 字段数 | { varint 键 ID | 字符串 值 }
+ *   响应   = 0x02 | 状态（0 = OK，1 = ERROR）| OK: varint 条目数 { 字符串 }；ERROR: 字符串 错误码
+ *   压缩响应 = 0x03 | varint 解压后长度 | zlib 数据（使用 {@link #DICTIONARY} 作为预置字典）
+ *   字符串 = varint 字节长度 | UTF-8 字节
+ * </pre>
+ * 压缩响应只在协商了 deflate 特性、且 OK 列表响应超过 {@link #COMPRESSION_THRESHOLD} 字节时由主程序发送，
+ * 解压后的内容是 "OK:" 之后以 ';' 分隔的条目文本，与是否协商 bin1 无关。
+ * 事件类型和键优先使用内置表中的 ID（从 1 开始）；ID 为 0 时其后紧跟一个字符串。
+ * 内置表只能在末尾追加，调整顺序或删除条目必须提升版本号。
+ */
+public final class KnotLinkBinaryCodec {
+    public static final byte MAGIC = (byte) 0xB1;
+    public static final int VERSION = 1;
+    // 帧头最长为 魔数 + 版本 + 5 字节 varint
+    static final int MAX_HEADER_LENGTH = 7;
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    static final int KIND_EVENT = 1;
+    static final int KIND_REPLY = 2;
+    static final int KIND_DEFLATED_REPLY = 3;
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+
+    /** 超过该字节数的列表响应才值得压缩 */
+    public static final int COMPRESSION_THRESHOLD = 4096;
+    // 解压后长度的上限，防止异常数据让 asString() 一次分配过大的数组
+    static final int MAX_INFLATED_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * 压缩响应的预置字典：备份文件名中反复出现的片段。
+     * 字典末尾的内容被引用时距离最短，所以最常见的片段放在最后；双方必须使用完全相同的字节。
+     */
+    static final byte[] DICTIONARY = ("_nether;_the_end;New World;.zip;.tar.gz;"
+            + "[Incremental][2025-01-01_00-00-00]world .7z;"
+            + "[Smart][2025-01-01_00-00-00]world [].7z;"
+            + "[Full][2025-01-01_00-00-00]world [].7z;"
+            + "[Smart][2025-;[Full][2025-;-00]world [").getBytes(StandardCharsets.UTF_8);
+    // zlib 流头部记录的预置字典校验值（Adler-32）
+    private static final int DICTIONARY_ID = adler32(DICTIONARY);
+
+    // bin1 以类型在表中的位置作为编号
+    private static final String[] EVENT_TYPES = KnotLinkEvent.KNOWN_TYPES.toArray(new String[0]);
+    private static final String[] KEYS = {
+            "world",
+            "file",
+            "error",
+            "status",
+            "config",
+            "version",
+            "min_mod_version",
+            "features",
+            "action",
+            "comment",
+    };
+    private static final Map<String, Integer> EVENT_TYPE_IDS = index(EVENT_TYPES);
+    private static final Map<String, Integer> KEY_IDS = index(KEYS);
+
+    private KnotLinkBinaryCodec() {}
+
+    private static Map<String, Integer> index(String[] table) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < table.length; i++) {
+            ids.put(table[i], i + 1);
+        }
+        return Map.copyOf(ids);
+    }
+
+    /**
+     * 解析帧头
+     * @param bodyLength 输出参数，bodyLength[0] 为正文长度
+     * @return 帧头长度；数据不足以解析出完整帧头时返回 -1
+     * @throws IllegalArgumentException 不是二进制帧，或版本号、长度不受支持
+     */
+    static int readHeader(byte[] data, int offset, int length, int[] bodyLength) {
+        if (length < 1) {
+            return -1;
+        }
+        if (data[offset] != MAGIC) {
+            throw new IllegalArgumentException("Not a binary KnotLink frame");
+        }
+        if (length < 2) {
+            return -1;
+        }
+        int version = data[offset + 1] & 0xFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary KnotLink frame version " + version);
+        }
+        int value = 0;
+        for (int i = 2, shift = 0; i < MAX_HEADER_LENGTH; i++, shift += 7) {
+            if (i >= length) {
+                return -1;
+            }
+            byte b = data[offset + i];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0 || value > MAX_FRAME_LENGTH) {
+                    throw new IllegalArgumentException("Binary KnotLink frame too large: " + value);
+                }
+                bodyLength[0] = value;
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Malformed binary KnotLink frame length");
+    }
+
+    /**
+     * 解码一条事件正文，得到与文本事件字段相同形状的 Map（事件类型放在 "event" 键下）
+     * @throws IllegalArgumentException 正文格式错误
+     */
+    public static Map<String, String> decodeEvent(ByteBuffer body) {
+        try {
+            if (body.get() != KIND_EVENT) {
+                throw new IllegalArgumentException("Binary KnotLink frame is not an event");
+            }
+            String type = readInterned(body, EVENT_TYPES);
+            int count = readVarint(body);
+            if (count > body.remaining()) {
+                throw new IllegalArgumentException("Malformed binary KnotLink event");
+            }
+            Map<String, String> event = HashMap.newHashMap(count + 1);
+            event.put("event", type);
+            for (int i = 0; i < count; i++) {
+                String key = readInterned(body, KEYS);
+                event.put(key, readString(body));
+            }
+            return event;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated binary KnotLink event", e);
+        }
+    }
+
+    /**
+     * 把事件编码为完整的二进制帧（含帧头）
+     */
+    public static byte[] encodeEvent(Map<String, String> event) {
+        Output out = new Output(64);
+        out.writeByte(KIND_EVENT);
+        String type = event.getOrDefault("event", "");
+        out.writeInterned(type, EVENT_TYPE_IDS);
+        out.writeVarint(event.containsKey("event") ? event.size() - 1 : event.size());
+        for (Map.Entry<String, String> field : event.entrySet()) {
+            if (!field.getKey().equals("event")) {
+                out.writeInterned(field.getKey(), KEY_IDS);
+                out.writeString(field.getValue());
+            }
+        }
+        return out.toFrame();
+    }
+
+    /**
+     * 把 "OK:a;b;c" 或 "ERROR:code" 形式的文本响应编码为二进制帧
+     */
+    public static byte[] encodeReply(QueryResponse response) {
+        Output out = new Output(Math.max(16, response.byteLength()));
+        out.writeByte(KIND_REPLY);
+        if (response.isOk()) {
+            int count = 0;
+            for (String ignored : response.entries()) {
+                count++;
+            }
+            out.writeByte(STATUS_OK);
+            out.writeVarint(count);
+            for (String entry : response.entries()) {
+                out.writeString(entry);
+            }
+        } else {
+            String text = response.asString();
+            out.writeByte(STATUS_ERROR);
+            out.writeString(text.startsWith("ERROR:") ? text.substring(6) : text);
+        }
+        return out.toFrame();
+    }
+
+    /**
+     * 把 OK 列表响应编码为压缩响应帧（是否超过 {@link #COMPRESSION_THRESHOLD} 由发送方判断）
+     */
+    public static byte[] encodeDeflatedReply(QueryResponse response) {
+        if (!response.isOk()) {
+            throw new IllegalArgumentException("Only OK replies can be compressed");
+        }
+        byte[] content = response.asString().substring(3).getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(content);
+            deflater.finish();
+            Output out = new Output(content.length / 4 + 16);
+            out.writeByte(KIND_DEFLATED_REPLY);
+            out.writeVarint(content.length);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.ensure(n);
+                System.arraycopy(chunk, 0, out.buffer, out.length, n);
+                out.length += n;
+            }
+            return out.toFrame();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 创建压缩响应使用的解压器；第一次 inflate 返回 0 且 needsDictionary() 时需要调用 setDictionary
+     */
+    static Inflater newInflater(byte[] data, int offset, int length) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data, offset, length);
+        return inflater;
+    }
+
+    /**
+     * 检查 zlib 流头部：未使用预置字典，或使用的正是 {@link #DICTIONARY}
+     * 字典不一致时解压必然失败，收到响应时就可以判定为格式错误，不必等到遍历条目
+     */
+    static boolean usesKnownDictionary(byte[] data, int offset, int length) {
+        if (length < 2) {
+            return false;
+        }
+        if ((data[offset + 1] & 0x20) == 0) {
+            return true;
+        }
+        if (length < 6) {
+            return false;
+        }
+        int id = ((data[offset + 2] & 0xFF) << 24) | ((data[offset + 3] & 0xFF) << 16)
+                | ((data[offset + 4] & 0xFF) << 8) | (data[offset + 5] & 0xFF);
+        return id == DICTIONARY_ID;
+    }
+
+    private static int adler32(byte[] data) {
+        Adler32 adler = new Adler32();
+        adler.update(data);
+        return (int) adler.getValue();
+    }
+
+    /**
+     * 解压若干字节，需要时自动设置预置字典
+     * @return 本次写入 out 的字节数；数据已全部解压时返回 -1
+     */
+    static int inflate(Inflater inflater, byte[] out, int offset, int length) {
+        try {
+            while (true) {
+                int n = inflater.inflate(out, offset, length);
+                if (n > 0) {
+                    return n;
+                }
+                if (inflater.needsDictionary()) {
+                    try {
+                        inflater.setDictionary(DICTIONARY);
+                    } catch (IllegalArgumentException e) {
+                        // 对端使用了不同的预置字典
+                        throw new IllegalArgumentException("Malformed compressed KnotLink reply: dictionary mismatch", e);
+                    }
+                } else if (inflater.finished() || inflater.needsInput()) {
+                    return -1;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed compressed KnotLink reply", e);
+        }
+    }
+
+    /**
+     * 把解码后的事件还原为文本协议的 "event=x;k=v" 形式（供只接受文本的监听器使用）
+     */
+    public static String toText(Map<String, String> event) {
+        StringBuilder text = new StringBuilder(64).append("event=").append(event.getOrDefault("event", ""));
+        for (Map.Entry<String, String> field : event.entrySet()) {
+            if (!field.getKey().equals("event")) {
+                text.append(';').append(field.getKey()).append('=').append(field.getValue());
+            }
+        }
+        return text.toString();
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in binary KnotLink frame");
+    }
+
+    /**
+     * 在字节数组上读取 varint；position[0] 为读取位置，读取后前移
+     */
+    static int readVarint(byte[] data, int limit, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position[0] >= limit) {
+                break;
+            }
+            byte b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in binary KnotLink frame");
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated string in binary KnotLink frame");
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /**
+     * 读取表内 ID（内置字符串直接复用，不分配新对象）或 ID 0 加内联字符串
+     */
+    private static String readInterned(ByteBuffer in, String[] table) {
+        int id = readVarint(in);
+        if (id == 0) {
+            return readString(in);
+        }
+        if (id > table.length) {
+            throw new IllegalArgumentException("Unknown interned id " + id + " in binary KnotLink frame");
+        }
+        return table[id - 1];
+    }
+
+    /**
+     * 可增长的输出缓冲区，正文写完后再补上帧头
+     */
+    private static final class Output {
+        private byte[] buffer;
+        private int length;
+
+        private Output(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buffer[length++] = (byte) b;
+        }
+
+        private void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void writeInterned(String value, Map<String, Integer> ids) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                writeVarint(id);
+            } else {
+                writeVarint(0);
+                writeString(value);
+            }
+        }
+
+        private byte[] toFrame() {
+            Output header = new Output(MAX_HEADER_LENGTH);
+            header.writeByte(MAGIC);
+            header.writeByte(VERSION);
+            header.writeVarint(length);
+            byte[] frame = new byte[header.length + length];
+            System.arraycopy(header.buffer, 0, frame, 0, header.length);
+            System.arraycopy(buffer, 0, frame, header.length, length);
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.leafuke.minebackup.knotlink;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 广播事件的可复用只读视图（享元）。
+ * 文本事件 "event=x;k=v;..." 不拆分为字符串：{@link #reset} 只在原始字符序列上扫描一遍，
+ * 把各字段键和值的位置记录到复用的数组里，值在被访问时才按需比较或取出，
+ * 只读取一两个字段、或只做比较的处理器全程不产生任何分配；二进制事件（bin1）已解码为 Map，直接包装。
+ *
+ * 视图在下一次 {@link #reset} 时失效，且不是线程安全的：
+ * 需要转到其他线程继续处理的字段，必须先用 {@link #get} 取出，或用 {@link #toMap} 复制一份。
+ */
+public final class KnotLinkEvent {
+    public static final String TYPE_KEY = "event";
+
+    /**
+     * 主程序会广播的事件类型。文本分帧据此判断粘连的下一条消息从哪里开始，
+     * bin1 以类型在表中的位置作为编号，新类型只能追加在末尾
+     */
+    public static final List<String> KNOWN_TYPES = List.of(
+            "handshake",
+            "pre_hot_backup",
+            "pre_hot_restore",
+            "restore_finished",
+            "restore_success",
+            "rejoin_world",
+            "backup_started",
+            "restore_started",
+            "backup_success",
+            "backup_failed",
+            "game_session_start",
+            "game_session_end",
+            "auto_backup_started",
+            "we_snapshot_completed");
+
+    private static final int INITIAL_FIELDS = 8;
+
+    private CharSequence text;
+    private Map<String, String> fields;
+    // 文本事件各字段的位置，每个字段依次为键起点、键终点、值起点、值终点（均已去除首尾空白）
+    private int[] bounds = new int[INITIAL_FIELDS * 4];
+    private int fieldCount;
+    // 文本事件中事件类型值的范围（已去除首尾空白），start 为 -1 表示没有 event 字段
+    private int typeStart = -1;
+    private int typeEnd;
+    // 最近一次 find 找到的值的范围
+    private int valueStart;
+    private int valueEnd;
+
+    /**
+     * 指向一条文本事件，记录各字段位置并定位事件类型，不创建任何字符串
+     */
+    public KnotLinkEvent reset(CharSequence payload) {
+        this.text = payload == null ? "" : payload;
+        this.fields = null;
+        index();
+        if (find(TYPE_KEY)) {
+            typeStart = valueStart;
+            typeEnd = valueEnd;
+        } else {
+            typeStart = -1;
+        }
+        return this;
+    }
+
+    /**
+     * 指向一条已解码的事件（二进制事件），事件类型位于 "event" 键下
+     */
+    public KnotLinkEvent reset(Map<String, String> decoded) {
+        this.text = null;
+        this.fields = decoded == null ? Collections.emptyMap() : decoded;
+        this.fieldCount = 0;
+        return this;
+    }
+
+    public boolean hasType() {
+        return fields != null ? fields.get(TYPE_KEY) != null : typeStart >= 0;
+    }
+
+    /**
+     * 事件类型的哈希值，与 String.hashCode 一致，供分发表在不创建字符串的情况下查找
+     */
+    public int typeHash() {
+        if (fields != null) {
+            String type = fields.get(TYPE_KEY);
+            return type == null ? 0 : type.hashCode();
+        }
+        int hash = 0;
+        for (int i = typeStart; i < typeEnd; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    public boolean isType(String type) {
+        if (fields != null) {
+            return type.equals(fields.get(TYPE_KEY));
+        }
+        return typeStart >= 0 && regionEquals(typeStart, typeEnd, type);
+    }
+
+    /**
+     * 事件类型；文本事件会为此创建一个字符串
+     */
+    public String type() {
+        if (fields != null) {
+            return fields.get(TYPE_KEY);
+        }
+        return typeStart < 0 ? null : text.subSequence(typeStart, typeEnd).toString();
+    }
+
+    public boolean has(String key) {
+        return fields != null ? fields.get(key) != null : find(key);
+    }
+
+    /**
+     * 字段不存在或只有空白时返回 true
+     */
+    public boolean isBlank(String key) {
+        if (fields != null) {
+            String value = fields.get(key);
+            return value == null || value.isBlank();
+        }
+        return !find(key) || valueStart == valueEnd;
+    }
+
+    /**
+     * 比较字段值（已去除首尾空白），不创建字符串；字段不存在时返回 false
+     */
+    public boolean valueEquals(String key, String expected) {
+        if (fields != null) {
+            return expected.equals(fields.get(key));
+        }
+        return find(key) && regionEquals(valueStart, valueEnd, expected);
+    }
+
+    /**
+     * 以十进制整数读取字段，不存在或格式不对时返回默认值
+     */
+    public int getInt(String key, int defaultValue) {
+        if (fields != null) {
+            String value = fields.get(key);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        if (!find(key) || valueStart == valueEnd) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(text, valueStart, valueEnd, 10);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 取出字段值（已去除首尾空白），不存在时返回 null；文本事件会为此创建一个字符串
+     */
+    public String get(String key) {
+        if (fields != null) {
+            return fields.get(key);
+        }
+        return find(key) ? text.subSequence(valueStart, valueEnd).toString() : null;
+    }
+
+    public String getOrDefault(String key, String defaultValue) {
+        String value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * 复制为独立的字段表，与旧版 parsePayload 的结果一致
+     */
+    public Map<String, String> toMap() {
+        if (fields != null) {
+            return new HashMap<>(fields);
+        }
+        Map<String, String> copy = HashMap.newHashMap(fieldCount);
+        for (int i = 0; i < fieldCount * 4; i += 4) {
+            copy.put(text.subSequence(bounds[i], bounds[i + 1]).toString(),
+                    text.subSequence(bounds[i + 2], bounds[i + 3]).toString());
+        }
+        return copy;
+    }
+
+    // 原始文本，二进制事件为 null；供事件队列保存不会被复用的事件内容
+    String sourceText() {
+        return fields != null ? null : text.toString();
+    }
+
+    // 二进制事件解码出的字段表，文本事件为 null
+    Map<String, String> sourceFields() {
+        return fields;
+    }
+
+    /**
+     * 原始文本（二进制事件还原为文本），仅用于日志
+     */
+    @Override
+    public String toString() {
+        if (fields != null) {
+            return KnotLinkBinaryCodec.toText(fields);
+        }
+        return text == null ? "" : text.toString();
+    }
+
+    /**
+     * 扫描一遍文本，记录每个 "键=值" 字段的位置；没有 '=' 的片段与 parsePayload 一样被忽略
+     */
+    private void index() {
+        CharSequence source = text;
+        int length = source.length();
+        int count = 0;
+        int start = 0;
+        while (start <= length) {
+            int end = indexOf(';', start, length);
+            int eq = indexOf('=', start, end);
+            if (eq < end) {
+                if (count * 4 == bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                int keyStart = skipLeading(start, eq);
+                int valueFrom = skipLeading(eq + 1, end);
+                bounds[count * 4] = keyStart;
+                bounds[count * 4 + 1] = skipTrailing(keyStart, eq);
+                bounds[count * 4 + 2] = valueFrom;
+                bounds[count * 4 + 3] = skipTrailing(valueFrom, end);
+                count++;
+            }
+            start = end + 1;
+        }
+        fieldCount = count;
+    }
+
+    /**
+     * 查找字段，找到时把值的位置记录到 valueStart/valueEnd。
+     * 与 parsePayload 相同，键名重复时以最后一个为准，因此从后往前找
+     */
+    private boolean find(String key) {
+        for (int i = (fieldCount - 1) * 4; i >= 0; i -= 4) {
+            if (regionEquals(bounds[i], bounds[i + 1], key)) {
+                valueStart = bounds[i + 2];
+                valueEnd = bounds[i + 3];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    // 与 String.trim 相同，去除码点不大于空格的字符
+    private int skipLeading(int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private int skipTrailing(int from, int to) {
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private boolean regionEquals(int from, int to, String expected) {
+        if (to - from != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (text.charAt(from + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
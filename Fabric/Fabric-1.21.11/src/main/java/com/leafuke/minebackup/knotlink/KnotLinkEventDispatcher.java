@@ -0,0 +1,74 @@
+package com.leafuke.minebackup.knotlink;
+
+import java.util.Map;
+
+/**
+ * 预先构建的“事件类型 → 处理器”分发表。
+ * 使用开放寻址的定长数组，查找时直接用事件视图中的类型区间计算哈希并逐字符比较，
+ * 不需要为事件类型创建字符串，也不需要逐个比较分支。构建后不可修改，可在多个线程间共享。
+ */
+public final class KnotLinkEventDispatcher {
+
+    /**
+     * 事件处理器，在收到事件的线程（KnotLink 事件循环线程）上调用
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void handle(KnotLinkEvent event);
+    }
+
+    private final String[] types;
+    private final Handler[] handlers;
+    private final int mask;
+
+    public KnotLinkEventDispatcher(Map<String, Handler> table) {
+        // 装载因子不超过 0.5，未命中时探测序列很短
+        int capacity = Integer.highestOneBit(Math.max(table.size(), 1) * 4 - 1);
+        this.types = new String[capacity];
+        this.handlers = new Handler[capacity];
+        this.mask = capacity - 1;
+        for (Map.Entry<String, Handler> entry : table.entrySet()) {
+            int slot = spread(entry.getKey().hashCode()) & mask;
+            while (types[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            types[slot] = entry.getKey();
+            handlers[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * 把事件交给对应的处理器
+     * @return 事件类型已注册时返回 true
+     */
+    public boolean dispatch(KnotLinkEvent event) {
+        Handler handler = lookup(event);
+        if (handler == null) {
+            return false;
+        }
+        handler.handle(event);
+        return true;
+    }
+
+    /**
+     * 查找事件类型对应的处理器，未注册或事件没有类型时返回 null
+     */
+    public Handler lookup(KnotLinkEvent event) {
+        if (!event.hasType()) {
+            return null;
+        }
+        int slot = spread(event.typeHash()) & mask;
+        String type;
+        while ((type = types[slot]) != null) {
+            if (event.isType(type)) {
+                return handlers[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
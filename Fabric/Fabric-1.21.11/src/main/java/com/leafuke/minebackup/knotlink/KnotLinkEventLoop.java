@@ -0,0 +1,227 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KnotLink 的单线程 NIO 事件循环。
+ * 所有长连接（订阅器、心跳等）都注册在同一个 Selector 上，由一个守护线程处理读写与定时任务；
+ * 线程在首次使用时创建，之后在服务器反复启停之间复用，不会随连接数增长。
+ */
+public final class KnotLinkEventLoop {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private static volatile KnotLinkEventLoop instance;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // 仅在事件循环线程上访问
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    // 所有连接共用的直接缓冲区，仅在事件循环线程上使用
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    /**
+     * 注册到事件循环上的连接的回调，均在事件循环线程上执行
+     */
+    public interface Handler {
+        void onReadable(SelectionKey key, ByteBuffer readBuffer) throws IOException;
+
+        default void onWritable(SelectionKey key) throws IOException {}
+
+        default void onConnectable(SelectionKey key) throws IOException {}
+
+        void onError(IOException e);
+    }
+
+    /**
+     * 可取消的定时任务句柄
+     */
+    public interface Cancellable {
+        void cancel();
+    }
+
+    private KnotLinkEventLoop() throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "minebackup-knotlink-loop");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public static KnotLinkEventLoop get() {
+        KnotLinkEventLoop loop = instance;
+        if (loop == null) {
+            synchronized (KnotLinkEventLoop.class) {
+                loop = instance;
+                if (loop == null) {
+                    try {
+                        loop = new KnotLinkEventLoop();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Failed to open KnotLink selector", e);
+                    }
+                    instance = loop;
+                }
+            }
+        }
+        return loop;
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在事件循环线程上执行任务
+     */
+    public void execute(Runnable task) {
+        if (inEventLoop()) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * 注册通道，必须在事件循环线程上调用
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    public Cancellable schedule(Runnable task, long delay, TimeUnit unit) {
+        return scheduleTimer(task, unit.toNanos(delay), 0L);
+    }
+
+    public Cancellable scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return scheduleTimer(task, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    private Cancellable scheduleTimer(Runnable task, long delayNanos, long periodNanos) {
+        Timer timer = new Timer(task, System.nanoTime() + delayNanos, periodNanos);
+        execute(() -> timers.add(timer));
+        return timer;
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                long timeoutMs = runDueTimers();
+                if (timeoutMs < 0) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1L, timeoutMs));
+                }
+                processSelectedKeys();
+                runTasks();
+            } catch (Throwable t) {
+                LOGGER.error("Unexpected error in KnotLink event loop: {}", t.getMessage(), t);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Handler handler = (Handler) key.attachment();
+            try {
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isConnectable()) {
+                    handler.onConnectable(key);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    readBuffer.clear();
+                    handler.onReadable(key, readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    handler.onWritable(key);
+                }
+            } catch (CancelledKeyException ignored) {
+            } catch (IOException e) {
+                handler.onError(e);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOGGER.error("KnotLink event loop task failed: {}", t.getMessage(), t);
+            }
+        }
+    }
+
+    /**
+     * 执行所有到期的定时任务
+     * @return 距下一个定时任务的毫秒数；没有定时任务时返回 -1
+     */
+    private long runDueTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null) {
+            if (timer.cancelled) {
+                timers.poll();
+                continue;
+            }
+            if (timer.deadlineNanos - now > 0) {
+                return TimeUnit.NANOSECONDS.toMillis(timer.deadlineNanos - now);
+            }
+            timers.poll();
+            try {
+                timer.task.run();
+            } catch (Throwable t) {
+                LOGGER.error("KnotLink scheduled task failed: {}", t.getMessage(), t);
+            }
+            if (timer.periodNanos > 0 && !timer.cancelled) {
+                timer.deadlineNanos += timer.periodNanos;
+                timers.add(timer);
+            }
+            now = System.nanoTime();
+        }
+        return -1L;
+    }
+
+    private static final class Timer implements Comparable<Timer>, Cancellable {
+        private final Runnable task;
+        private final long periodNanos;
+        private long deadlineNanos;
+        private volatile boolean cancelled;
+
+        private Timer(Runnable task, long deadlineNanos, long periodNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadlineNanos - other.deadlineNanos, 0L);
+        }
+    }
+}
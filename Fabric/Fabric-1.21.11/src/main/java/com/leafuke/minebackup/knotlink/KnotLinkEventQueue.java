@@ -0,0 +1,270 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * KnotLink 事件循环线程与服务器线程之间的有界优先级事件队列。
+ *
+ * 事件循环线程只负责把事件放入队列，不再执行处理器，慢处理器不会拖住套接字读取。
+ * 控制事件（热备份、热还原等）优先于提示类事件：入队时立即唤醒一次服务器线程处理，
+ * 每个 tick 结束时也会先清空控制事件，再处理有限数量的提示类事件。
+ * 优先只针对排在后面的提示类事件：处理控制事件前，会先处理比它更早入队的提示类事件，
+ * 同一次备份的 backup_started 总在 backup_success / backup_failed 之前处理。
+ * 尚未处理的提示类事件内容完全相同时合并为一条；队列满时丢弃最旧的提示类事件。
+ */
+public final class KnotLinkEventQueue {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    // 控制事件数量很少，超过这个数说明服务器线程已经停止处理
+    private static final int CONTROL_CAPACITY = 32;
+    // 排队延迟的指数滑动平均系数
+    private static final double EWMA_ALPHA = 0.2;
+
+    public enum Priority {
+        CONTROL,
+        INFO
+    }
+
+    private final int capacity;
+    private final Runnable controlWakeup;
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+    // 以下字段在 this 上同步
+    private final ArrayDeque<Entry> control = new ArrayDeque<>();
+    private final ArrayDeque<Entry> info = new ArrayDeque<>();
+    // 尚未处理的提示类事件，按事件内容索引，用于合并重复事件
+    private final Set<Object> pendingInfo = new HashSet<>();
+    private boolean open = false;
+    private long enqueued = 0L;
+    private long coalesced = 0L;
+    private long dropped = 0L;
+    private long processed = 0L;
+    private int highWater = 0;
+    private long lastLagMicros = -1L;
+    private double averageLagMicros = -1.0;
+    private long maxLagMicros = 0L;
+
+    // 仅在处理事件的线程（服务器线程）上使用
+    private final KnotLinkEvent drainView = new KnotLinkEvent();
+
+    /**
+     * @param capacity 提示类事件的最大排队数量
+     * @param controlWakeup 控制事件入队时调用，负责安排一次 {@link #drainControl}（通常提交到服务器线程）
+     */
+    public KnotLinkEventQueue(int capacity, Runnable controlWakeup) {
+        this.capacity = Math.max(1, capacity);
+        this.controlWakeup = controlWakeup;
+    }
+
+    /**
+     * 包装为控制事件处理器：在事件循环线程上入队，处理器稍后在服务器线程上执行
+     */
+    public KnotLinkEventDispatcher.Handler control(KnotLinkEventDispatcher.Handler handler) {
+        return event -> offer(event, handler, Priority.CONTROL);
+    }
+
+    /**
+     * 包装为提示类事件处理器：在事件循环线程上入队，按 tick 分批在服务器线程上执行
+     */
+    public KnotLinkEventDispatcher.Handler informational(KnotLinkEventDispatcher.Handler handler) {
+        return event -> offer(event, handler, Priority.INFO);
+    }
+
+    /**
+     * 开始接受事件（服务器启动完成后调用）
+     */
+    public synchronized void open() {
+        open = true;
+    }
+
+    /**
+     * 停止接受事件并丢弃尚未处理的事件（服务器停止时调用）
+     * @return 被丢弃的事件数量
+     */
+    public synchronized int close() {
+        open = false;
+        int discarded = control.size() + info.size();
+        dropped += discarded;
+        control.clear();
+        info.clear();
+        pendingInfo.clear();
+        wakeupPending.set(false);
+        return discarded;
+    }
+
+    private void offer(KnotLinkEvent event, KnotLinkEventDispatcher.Handler handler, Priority priority) {
+        // 视图会被下一条事件复用，入队的是原始内容（文本事件的字符串或二进制事件解码出的 Map）
+        String text = event.sourceText();
+        Map<String, String> fields = event.sourceFields();
+        boolean wakeup;
+        synchronized (this) {
+            if (!open) {
+                dropped++;
+                return;
+            }
+            enqueued++;
+            if (priority == Priority.CONTROL) {
+                if (control.size() >= CONTROL_CAPACITY) {
+                    dropped++;
+                    LOGGER.warn("KnotLink control event queue is full, dropping event: {}", event);
+                    return;
+                }
+                control.addLast(new Entry(text, fields, handler, enqueued));
+            } else {
+                Object key = text != null ? text : fields;
+                if (pendingInfo.contains(key)) {
+                    coalesced++;
+                    return;
+                }
+                if (info.size() >= capacity) {
+                    Entry oldest = info.removeFirst();
+                    pendingInfo.remove(oldest.key());
+                    dropped++;
+                }
+                info.addLast(new Entry(text, fields, handler, enqueued));
+                pendingInfo.add(key);
+            }
+            highWater = Math.max(highWater, control.size() + info.size());
+            wakeup = priority == Priority.CONTROL && wakeupPending.compareAndSet(false, true);
+        }
+        if (wakeup) {
+            controlWakeup.run();
+        }
+    }
+
+    /**
+     * 处理全部控制事件，之后最多处理 maxInformational 条提示类事件（每个 tick 结束时调用）
+     * @return 本次处理的事件数量
+     */
+    public int drain(int maxInformational) {
+        int count = drainControl();
+        for (int i = 0; i < maxInformational; i++) {
+            Entry entry;
+            synchronized (this) {
+                entry = info.pollFirst();
+                if (entry == null) {
+                    break;
+                }
+                pendingInfo.remove(entry.key());
+            }
+            run(entry);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 处理全部控制事件，以及比它们更早入队的提示类事件
+     * @return 本次处理的事件数量
+     */
+    public int drainControl() {
+        wakeupPending.set(false);
+        int count = 0;
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                Entry next = control.peekFirst();
+                Entry earlier = info.peekFirst();
+                if (next != null && earlier != null && earlier.sequence < next.sequence) {
+                    entry = info.pollFirst();
+                    pendingInfo.remove(entry.key());
+                } else {
+                    entry = control.pollFirst();
+                }
+            }
+            if (entry == null) {
+                return count;
+            }
+            run(entry);
+            count++;
+        }
+    }
+
+    private void run(Entry entry) {
+        recordLag((System.nanoTime() - entry.enqueuedNanos) / 1000L);
+        KnotLinkEvent event = entry.text != null ? drainView.reset(entry.text) : drainView.reset(entry.fields);
+        try {
+            entry.handler.handle(event);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to handle KnotLink event: {}", event, e);
+        }
+    }
+
+    private synchronized void recordLag(long micros) {
+        processed++;
+        lastLagMicros = micros;
+        averageLagMicros = averageLagMicros < 0 ? micros : averageLagMicros + EWMA_ALPHA * (micros - averageLagMicros);
+        maxLagMicros = Math.max(maxLagMicros, micros);
+    }
+
+    public synchronized int size() {
+        return control.size() + info.size();
+    }
+
+    public synchronized int getHighWater() {
+        return highWater;
+    }
+
+    public synchronized long getEnqueued() {
+        return enqueued;
+    }
+
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * 最近一条事件从入队到开始处理的时间（微秒），尚无数据时为 -1
+     */
+    public synchronized long getLastLagMicros() {
+        return lastLagMicros;
+    }
+
+    public synchronized long getAverageLagMicros() {
+        return averageLagMicros < 0 ? -1L : Math.round(averageLagMicros);
+    }
+
+    public synchronized long getMaxLagMicros() {
+        return maxLagMicros;
+    }
+
+    public synchronized String describe() {
+        return String.format("queued=%d, highWater=%d, enqueued=%d, processed=%d, coalesced=%d, dropped=%d, avgLag=%dus, maxLag=%dus",
+                size(), highWater, enqueued, processed, coalesced, dropped, getAverageLagMicros(), maxLagMicros);
+    }
+
+    private static final class Entry {
+        final String text;
+        final Map<String, String> fields;
+        final KnotLinkEventDispatcher.Handler handler;
+        // 入队顺序，控制事件据此先处理排在它前面的提示类事件
+        final long sequence;
+        final long enqueuedNanos = System.nanoTime();
+
+        Entry(String text, Map<String, String> fields, KnotLinkEventDispatcher.Handler handler, long sequence) {
+            this.text = text;
+            this.fields = fields;
+            this.handler = handler;
+            this.sequence = sequence;
+        }
+
+        Object key() {
+            return text != null ? text : fields;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * KnotLink 阻塞 I/O 专用执行器。
+ * 使用命名的虚拟线程，并限制并发数与排队数，避免占用 JVM 公共 ForkJoinPool；
+ * 队列已满时直接拒绝，调用方立即得到失败结果而不是继续堆积阻塞任务。
+ */
+public final class KnotLinkExecutor {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final int MAX_IN_FLIGHT = 8;
+    private static final int MAX_QUEUED = 32;
+
+    private static final AtomicLong REJECTED = new AtomicLong();
+    private static ThreadPoolExecutor executor;
+
+    private KnotLinkExecutor() {}
+
+    /**
+     * 在 I/O 执行器上异步执行任务；执行器已满时返回以 RejectedExecutionException 结束的 future
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, get());
+        } catch (RejectedExecutionException e) {
+            REJECTED.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 获取执行器；服务器停止后再次使用时会重新创建（客户端在集成服务器关闭后仍需发送通知）
+     */
+    private static synchronized ThreadPoolExecutor get() {
+        if (executor == null || executor.isShutdown()) {
+            executor = new ThreadPoolExecutor(
+                    MAX_IN_FLIGHT, MAX_IN_FLIGHT,
+                    30L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(MAX_QUEUED),
+                    Thread.ofVirtual().name("minebackup-knotlink-io-", 0).factory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /** 排队等待执行的任务数 */
+    public static synchronized int getQueueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /** 正在执行的任务数 */
+    public static synchronized int getInFlight() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    /** 因执行器已满而被拒绝的任务总数 */
+    public static long getRejectedCount() {
+        return REJECTED.get();
+    }
+
+    public static String describeStats() {
+        return String.format("inFlight=%d/%d, queued=%d/%d, rejected=%d",
+                getInFlight(), MAX_IN_FLIGHT, getQueueDepth(), MAX_QUEUED, getRejectedCount());
+    }
+
+    /**
+     * 停止接收新任务，已提交的任务继续执行完毕
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            LOGGER.info("KnotLink I/O executor shut down ({})", describeStats());
+        }
+    }
+}
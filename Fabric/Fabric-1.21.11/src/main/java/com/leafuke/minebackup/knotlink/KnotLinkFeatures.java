@@ -0,0 +1,105 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 握手时与主程序协商的 KnotLink 可选特性。
+ *
+ * 主程序在 handshake 事件中通过 features=a,b,c 声明自己支持的特性，
+ * 模组取其与自身支持特性的交集，在 HANDSHAKE_RESPONSE 中回传；
+ * 回传成功后这些特性才会启用。主程序未声明 features 时保持旧的文本协议。
+ */
+public final class KnotLinkFeatures {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    /** 单连接多路复用查询（请求携带关联 ID，可乱序返回） */
+    public static final String MUX = "mux";
+    /** 批量查询（一次往返发送多条只读查询） */
+    public static final String BATCH = "batch";
+    /** 紧凑二进制编码（事件与查询响应改用带长度前缀的二进制帧），名称中的数字为编码版本 */
+    public static final String BINARY = "bin" + KnotLinkBinaryCodec.VERSION;
+    /** 较大的列表响应使用带预置字典的 deflate 压缩 */
+    public static final String DEFLATE = "deflate";
+    /** WORLD_SAVED 附带保存时主世界的游戏刻（WORLD_SAVED <gametime>） */
+    public static final String SAVE_TIME = "savetime";
+    /** WORLD_SAVED 附带自上次成功备份以来写入过的区域文件清单（manifest=<文件 URI>） */
+    public static final String MANIFEST = "manifest";
+
+    // 模组支持的特性，按优先级排列
+    private static final List<String> SUPPORTED = List.of(MUX, BATCH, BINARY, DEFLATE, SAVE_TIME, MANIFEST);
+
+    private static volatile Set<String> active = Collections.emptySet();
+
+    private KnotLinkFeatures() {}
+
+    /**
+     * 根据主程序声明的特性计算双方都支持的特性，并先停用当前所有特性，
+     * 保证 HANDSHAKE_RESPONSE 本身通过最基础的文本协议发送。
+     * @param advertised handshake 事件中的 features 字段，可能为 null
+     * @return 逗号分隔的已接受特性；为空字符串时表示不启用任何特性
+     */
+    public static String negotiate(String advertised) {
+        active = Collections.emptySet();
+        if (advertised == null || advertised.isBlank()) {
+            return "";
+        }
+        Set<String> offered = new LinkedHashSet<>();
+        for (String feature : advertised.split(",")) {
+            offered.add(feature.trim());
+        }
+        StringBuilder accepted = new StringBuilder();
+        for (String feature : SUPPORTED) {
+            if (offered.contains(feature)) {
+                if (accepted.length() > 0) {
+                    accepted.append(',');
+                }
+                accepted.append(feature);
+            }
+        }
+        return accepted.toString();
+    }
+
+    /**
+     * 启用协商好的特性（在主程序确认 HANDSHAKE_RESPONSE 后调用）
+     */
+    public static void activate(String accepted) {
+        if (accepted == null || accepted.isEmpty()) {
+            return;
+        }
+        active = Set.of(accepted.split(","));
+        LOGGER.info("KnotLink features enabled: {}", accepted);
+    }
+
+    /**
+     * 停用某个特性（例如对应连接不可用时回退到文本协议）
+     */
+    public static void disable(String feature) {
+        Set<String> current = active;
+        if (!current.contains(feature)) {
+            return;
+        }
+        Set<String> next = new LinkedHashSet<>(current);
+        next.remove(feature);
+        active = Collections.unmodifiableSet(next);
+        LOGGER.warn("KnotLink feature '{}' disabled, falling back to the plain text protocol.", feature);
+    }
+
+    public static boolean isEnabled(String feature) {
+        return active.contains(feature);
+    }
+
+    public static void reset() {
+        active = Collections.emptySet();
+    }
+
+    public static String describe() {
+        Set<String> current = active;
+        return current.isEmpty() ? "none" : String.join(",", current);
+    }
+}
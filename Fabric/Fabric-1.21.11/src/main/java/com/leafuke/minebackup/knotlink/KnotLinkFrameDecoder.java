@@ -0,0 +1,431 @@
+package com.leafuke.minebackup.knotlink;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * KnotLink 广播流的分帧解码器。
+ *
+ * KnotLink 广播没有长度前缀，连续到达的多条事件可能被合并到一次 read 中，
+ * 过长的事件也可能被拆到多次 read 中。解码器只在确定的消息边界上分帧：
+ * 1) 换行、回车或 \0 视为消息结束；
+ * 2) 当前帧已经包含 event 字段时，位于字段开头（帧首或分号之后）、键恰好为 event 的字段是下一条消息的开始；
+ * 3) 当前帧已经包含 event 字段时，字段值中出现的 "event=&lt;已知事件类型&gt;" 也是下一条消息的开始
+ *    （主程序连续广播时没有分隔符，例如 world=Aevent=pre_hot_backup、file=x.7zevent=backup_success），
+ *    类型之后必须是分号、分隔符、数据结尾或下一条粘连消息的字段；
+ *    类型未知时不是边界（例如 file=prevent=1.7z）；
+ * 4) 事件名不含 '='：event 字段的值中出现 '=' 说明下一条消息直接粘在了事件名之后，
+ *    按已知事件类型表（{@link KnotLinkEvent#KNOWN_TYPES}）找出事件名的结尾，在那里分帧（例如 event=backup_startedworld=B）；
+ * 5) heartbeat_response、minebackup save 这类独立命令粘在其它数据前后时单独成帧。
+ * 没有分隔符的最后一条消息无法从数据本身判断是否已经结束，
+ * 由调用方在数据流静默一小段时间后或连接断开时通过 {@link #flush} 取出；边界之前的帧总是立即交付。
+ * 数据在一条可能的边界中间结束时（例如末尾是 "event=backup_suc"），从那里等待下一段数据再判断。
+ *
+ * UTF-8 解码是增量的：被拆开的多字节字符会保留到下一次 read 再解码。
+ * 在字符边界上遇到 0xB1 时，其后是一条 {@link KnotLinkBinaryCodec} 二进制帧：
+ * 此前的文本立即成帧，二进制帧按长度收齐后通过 {@link FrameListener#onBinaryFrame} 交付。
+ * 所有缓冲区都会复用，实例只能在单个线程（事件循环线程）上使用。
+ */
+public final class KnotLinkFrameDecoder {
+    private static final String EVENT_KEY = "event=";
+    private static final List<String> EVENT_TYPES = KnotLinkEvent.KNOWN_TYPES;
+    private static final String[] STANDALONE_COMMANDS = {"heartbeat_response", "minebackup save"};
+
+    public interface FrameListener {
+        void onFrame(String frame);
+
+        /**
+         * 收到一条完整的二进制帧
+         * @param body 帧正文（不含帧头），仅在回调期间有效
+         */
+        default void onBinaryFrame(ByteBuffer body) {
+        }
+
+        /**
+         * 二进制帧头不合法或帧过长，该帧已被丢弃
+         */
+        default void onMalformedFrame(String reason) {
+        }
+    }
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // 未能解码的不完整 UTF-8 字节（最多 3 字节）会留在这里
+    private final ByteBuffer pendingBytes = ByteBuffer.allocate(8192);
+    private final CharBuffer chars = CharBuffer.allocate(8192);
+    // 已解码但尚未成帧的文本
+    private final StringBuilder text = new StringBuilder(1024);
+
+    // 扫描状态，跨多次 decode 保留；text 总是从当前帧的开头开始
+    private int scanIndex = 0;
+    // 当前字段的起始位置
+    private int fieldStart = 0;
+    // 当前帧 event 字段值的起始位置，-1 表示还没有 event 字段
+    private int eventValueStart = -1;
+
+    // 当前 UTF-8 字符还缺少的续字节数，用于判断 0xB1 是否位于字符边界
+    private int utf8Continuation = 0;
+    // 二进制帧状态：binaryHeaderLength >= 0 表示正在收取帧头，binaryBody 非空表示正在收取正文
+    private final byte[] binaryHeader = new byte[KnotLinkBinaryCodec.MAX_HEADER_LENGTH];
+    private final int[] binaryBodyLength = new int[1];
+    private int binaryHeaderLength = -1;
+    private ByteBuffer binaryBody;
+
+    /**
+     * 解码一段原始字节，并把其中已完整的帧交给 listener
+     */
+    public void decode(ByteBuffer in, FrameListener listener) {
+        while (in.hasRemaining()) {
+            if (binaryHeaderLength >= 0) {
+                readBinary(in, listener);
+                continue;
+            }
+            int textEnd = findBinaryStart(in);
+            decodeText(in, textEnd);
+            if (in.hasRemaining()) {
+                // 二进制帧之前的文本是一条完整消息
+                flushText(listener);
+                binaryHeaderLength = 0;
+            }
+        }
+        scan(listener, false);
+    }
+
+    /**
+     * 从当前位置开始查找位于字符边界上的 0xB1
+     * @return 0xB1 的位置；没有时返回 limit
+     */
+    private int findBinaryStart(ByteBuffer in) {
+        for (int i = in.position(); i < in.limit(); i++) {
+            byte b = in.get(i);
+            if (utf8Continuation > 0) {
+                if ((b & 0xC0) == 0x80) {
+                    utf8Continuation--;
+                    continue;
+                }
+                utf8Continuation = 0; // 不完整的字符，由解码器替换
+            }
+            if (b == KnotLinkBinaryCodec.MAGIC) {
+                return i;
+            }
+            if ((b & 0xE0) == 0xC0) {
+                utf8Continuation = 1;
+            } else if ((b & 0xF0) == 0xE0) {
+                utf8Continuation = 2;
+            } else if ((b & 0xF8) == 0xF0) {
+                utf8Continuation = 3;
+            }
+        }
+        return in.limit();
+    }
+
+    /**
+     * 收取二进制帧的帧头与正文，收齐后交给 listener
+     */
+    private void readBinary(ByteBuffer in, FrameListener listener) {
+        if (binaryBody == null) {
+            binaryHeader[binaryHeaderLength++] = in.get();
+            int headerLength;
+            try {
+                headerLength = KnotLinkBinaryCodec.readHeader(binaryHeader, 0, binaryHeaderLength, binaryBodyLength);
+            } catch (IllegalArgumentException e) {
+                // 帧头损坏时无法得知帧的长度，后续字节按文本处理（没有 event 字段的数据会被忽略）
+                binaryHeaderLength = -1;
+                listener.onMalformedFrame(e.getMessage());
+                return;
+            }
+            if (headerLength < 0) {
+                return;
+            }
+            binaryBody = ByteBuffer.allocate(binaryBodyLength[0]);
+        }
+        int n = Math.min(in.remaining(), binaryBody.remaining());
+        binaryBody.put(in.slice(in.position(), n));
+        in.position(in.position() + n);
+        if (!binaryBody.hasRemaining()) {
+            ByteBuffer body = binaryBody.flip();
+            binaryBody = null;
+            binaryHeaderLength = -1;
+            listener.onBinaryFrame(body);
+        }
+    }
+
+    private void decodeText(ByteBuffer in, int end) {
+        while (in.position() < end) {
+            int n = Math.min(end - in.position(), pendingBytes.remaining());
+            ByteBuffer slice = in.slice(in.position(), n);
+            pendingBytes.put(slice);
+            in.position(in.position() + n);
+            pendingBytes.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(pendingBytes, chars, false);
+                chars.flip();
+                text.append(chars);
+                chars.clear();
+            } while (result.isOverflow());
+            pendingBytes.compact();
+        }
+    }
+
+    /**
+     * 是否还有尚未成帧的文本数据（二进制帧自带长度，不需要静默刷新）
+     */
+    public boolean hasPending() {
+        return text.length() > 0;
+    }
+
+    /**
+     * 把剩余数据作为最后一帧取出（数据流静默或连接断开时调用）
+     */
+    public void flush(FrameListener listener) {
+        flushText(listener);
+    }
+
+    private void flushText(FrameListener listener) {
+        pendingBytes.flip();
+        decoder.decode(pendingBytes, chars, true);
+        decoder.flush(chars);
+        decoder.reset();
+        chars.flip();
+        text.append(chars);
+        chars.clear();
+        pendingBytes.clear();
+        scan(listener, true);
+        while (splitGluedEvent(text.length(), listener)) {
+            scan(listener, true);
+        }
+        if (text.length() > 0) {
+            emit(text.toString(), listener);
+        }
+        resetText();
+    }
+
+    public void reset() {
+        resetText();
+        utf8Continuation = 0;
+        binaryHeaderLength = -1;
+        binaryBody = null;
+    }
+
+    private void resetText() {
+        text.setLength(0);
+        pendingBytes.clear();
+        chars.clear();
+        decoder.reset();
+        resetFrame();
+    }
+
+    private void resetFrame() {
+        scanIndex = 0;
+        fieldStart = 0;
+        eventValueStart = -1;
+    }
+
+    /**
+     * 从上次停下的位置继续查找消息边界，交付边界之前的帧
+     * @param atEnd 数据是否已经全部到达（text 的结尾也是消息的结尾）
+     */
+    private void scan(FrameListener listener, boolean atEnd) {
+        int i = scanIndex;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\0') {
+                if (splitGluedEvent(i, listener)) {
+                    i = 0;
+                    continue;
+                }
+                emit(text.substring(0, i), listener);
+                text.delete(0, i + 1);
+                resetFrame();
+                i = 0;
+                continue;
+            }
+            if (c == ';') {
+                if (splitGluedEvent(i, listener)) {
+                    i = 0;
+                    continue;
+                }
+                fieldStart = i + 1;
+            } else if (c == 'e' && eventValueStart >= 0 && i > fieldStart) {
+                int glued = gluedEventAt(i, atEnd);
+                if (glued < 0) {
+                    // 末尾可能是被拆开的边界，等下一段数据到达后再从这里继续扫描
+                    break;
+                }
+                if (glued > 0) {
+                    emit(text.substring(0, i), listener);
+                    text.delete(0, i);
+                    resetFrame();
+                    i = 0;
+                    continue;
+                }
+            } else if (c == 'e' && i == fieldStart) {
+                int available = Math.min(EVENT_KEY.length(), text.length() - i);
+                if (startsWithAt(EVENT_KEY, text, i, available)) {
+                    if (available < EVENT_KEY.length()) {
+                        // 末尾可能是被拆开的 "event="，等下一段数据到达后再从这里继续扫描
+                        break;
+                    }
+                    if (eventValueStart >= 0) {
+                        // 下一条消息开始
+                        emit(text.substring(0, i), listener);
+                        text.delete(0, i);
+                        resetFrame();
+                        i = 0;
+                        continue;
+                    }
+                    eventValueStart = i + EVENT_KEY.length();
+                    i = eventValueStart;
+                    continue;
+                }
+            }
+            i++;
+        }
+        scanIndex = i;
+    }
+
+    /**
+     * 判断字段值中 index 处的 "event=" 是否是粘连在后面的下一条消息的开始
+     * @return 1 表示是边界，0 表示不是，-1 表示数据不足、需要等待下一段数据
+     */
+    private int gluedEventAt(int index, boolean atEnd) {
+        int available = text.length() - index;
+        if (available < EVENT_KEY.length()) {
+            return !atEnd && startsWithAt(EVENT_KEY, text, index, available) ? -1 : 0;
+        }
+        if (!startsWithAt(EVENT_KEY, text, index, EVENT_KEY.length())) {
+            return 0;
+        }
+        int nameStart = index + EVENT_KEY.length();
+        int nameLength = -1;
+        boolean partial = false;
+        for (String type : EVENT_TYPES) {
+            int count = Math.min(type.length(), text.length() - nameStart);
+            if (!startsWithAt(type, text, nameStart, count)) {
+                continue;
+            }
+            if (count < type.length()) {
+                // 数据在事件名中间结束，更长的类型可能还没收全
+                partial = true;
+            } else if (type.length() > nameLength) {
+                nameLength = type.length();
+            }
+        }
+        if (partial && !atEnd) {
+            return -1;
+        }
+        if (nameLength < 0) {
+            return 0;
+        }
+        int nameEnd = nameStart + nameLength;
+        if (nameEnd == text.length()) {
+            return atEnd ? 1 : -1;
+        }
+        if (isFieldEnd(text.charAt(nameEnd))) {
+            return 1;
+        }
+        // 类型之后直接粘着下一条消息时，在字段结束之前会出现 '='（例如 event=backup_startedworld=B）
+        for (int k = nameEnd + 1; k < text.length(); k++) {
+            char c = text.charAt(k);
+            if (c == '=') {
+                return 1;
+            }
+            if (isFieldEnd(c)) {
+                return 0;
+            }
+        }
+        return atEnd ? 0 : -1;
+    }
+
+    private static boolean isFieldEnd(char c) {
+        return c == ';' || c == '\n' || c == '\r' || c == '\0';
+    }
+
+    /**
+     * 当前字段是 event 字段且在 end 处结束时，检查下一条消息是否直接粘在事件名之后；
+     * 是则把事件名及之前的内容作为一帧交付，text 从下一条消息开始
+     * @return 是否分出了一帧
+     */
+    private boolean splitGluedEvent(int end, FrameListener listener) {
+        if (eventValueStart < 0 || fieldStart != eventValueStart - EVENT_KEY.length()) {
+            return false;
+        }
+        int equals = -1;
+        for (int k = eventValueStart; k < end; k++) {
+            if (text.charAt(k) == '=') {
+                equals = k;
+                break;
+            }
+        }
+        if (equals < 0) {
+            return false;
+        }
+        // 事件名本身不含 '='，取 '=' 之前最长的已知事件名
+        int nameLength = -1;
+        for (String type : EVENT_TYPES) {
+            if (type.length() > nameLength && eventValueStart + type.length() < equals
+                    && startsWithAt(type, text, eventValueStart, type.length())) {
+                nameLength = type.length();
+            }
+        }
+        if (nameLength < 0) {
+            // 未知的事件名，无法确定边界，保持原样
+            return false;
+        }
+        int split = eventValueStart + nameLength;
+        emit(text.substring(0, split), listener);
+        text.delete(0, split);
+        resetFrame();
+        return true;
+    }
+
+    private static void emit(String frame, FrameListener listener) {
+        String remaining = frame.trim();
+        boolean split = true;
+        while (split && !remaining.isEmpty()) {
+            split = false;
+            for (String command : STANDALONE_COMMANDS) {
+                if (remaining.length() > command.length() && remaining.startsWith(command)) {
+                    listener.onFrame(command);
+                    remaining = remaining.substring(command.length()).trim();
+                    split = true;
+                    break;
+                }
+            }
+        }
+        // 独立命令也可能粘在上一条消息的末尾
+        String trailing = null;
+        for (String command : STANDALONE_COMMANDS) {
+            if (remaining.length() > command.length() && remaining.endsWith(command)) {
+                trailing = command;
+                remaining = remaining.substring(0, remaining.length() - command.length()).trim();
+                break;
+            }
+        }
+        if (!remaining.isEmpty()) {
+            listener.onFrame(remaining);
+        }
+        if (trailing != null) {
+            listener.onFrame(trailing);
+        }
+    }
+
+    /**
+     * 判断 s 从 index 开始的 count 个字符是否与 prefix 的前 count 个字符相同
+     */
+    private static boolean startsWithAt(String prefix, CharSequence s, int index, int count) {
+        for (int k = 0; k < count; k++) {
+            if (s.charAt(index + k) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package com.leafuke.minebackup.knotlink;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * KnotLink 连接的底层传输方式。
+ * 默认通过本机回环地址的 TCP 端口通信；配置了套接字目录时改用 Unix 域套接字，
+ * 每个 KnotLink 端口对应目录下的 knotlink-&lt;端口&gt;.sock 文件。
+ */
+public interface KnotLinkTransport {
+    int CONNECT_TIMEOUT_MS = 3000;
+
+    /**
+     * 打开到指定端口对应端点的连接，阻塞直到连接完成或超时
+     */
+    default SocketChannel connect(int port) throws IOException {
+        return connect(port, CONNECT_TIMEOUT_MS);
+    }
+
+    /**
+     * 同 {@link #connect(int)}，使用指定的连接超时（毫秒）
+     */
+    SocketChannel connect(int port, int timeoutMs) throws IOException;
+
+    /**
+     * 以非阻塞方式发起连接；返回的通道可能尚未完成连接，需要在 OP_CONNECT 就绪后调用 finishConnect
+     */
+    SocketChannel connectNonBlocking(int port) throws IOException;
+
+    String describe(int port);
+
+    /**
+     * 回环 TCP 传输
+     */
+    final class Tcp implements KnotLinkTransport {
+        private final String host;
+
+        public Tcp(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public SocketChannel connect(int port, int timeoutMs) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.socket().connect(new InetSocketAddress(host, port), timeoutMs);
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public SocketChannel connectNonBlocking(int port) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                channel.connect(new InetSocketAddress(host, port));
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public String describe(int port) {
+            return host + ":" + port;
+        }
+    }
+
+    /**
+     * Unix 域套接字传输（JDK 16+），绕过回环 TCP 协议栈；
+     * 同一台机器上的多个服务器实例可以各自使用不同的目录，互不干扰
+     */
+    final class UnixDomain implements KnotLinkTransport {
+        private final Path directory;
+
+        public UnixDomain(Path directory) {
+            this.directory = directory;
+        }
+
+        private UnixDomainSocketAddress address(int port) {
+            return UnixDomainSocketAddress.of(directory.resolve("knotlink-" + port + ".sock"));
+        }
+
+        @Override
+        public SocketChannel connect(int port, int timeoutMs) throws IOException {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                // 本地套接字的连接是立即完成的，不需要超时
+                channel.connect(address(port));
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public SocketChannel connectNonBlocking(int port) throws IOException {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.configureBlocking(false);
+                channel.connect(address(port));
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public String describe(int port) {
+            return address(port).getPath().toString();
+        }
+    }
+}
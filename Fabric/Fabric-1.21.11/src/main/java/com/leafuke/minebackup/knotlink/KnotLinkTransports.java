@@ -0,0 +1,37 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.nio.file.Path;
+
+/**
+ * 当前使用的 KnotLink 传输方式
+ */
+public final class KnotLinkTransports {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final KnotLinkTransport LOOPBACK = new KnotLinkTransport.Tcp("127.0.0.1");
+
+    private static volatile KnotLinkTransport current = LOOPBACK;
+
+    private KnotLinkTransports() {}
+
+    public static KnotLinkTransport get() {
+        return current;
+    }
+
+    /**
+     * 根据配置选择传输方式
+     * @param socketDir Unix 域套接字所在目录；为空时使用回环 TCP
+     */
+    public static void configure(String socketDir) {
+        KnotLinkTransport next = socketDir == null || socketDir.isBlank()
+                ? LOOPBACK
+                : new KnotLinkTransport.UnixDomain(Path.of(socketDir.trim()));
+        KnotLinkTransport previous = current;
+        current = next;
+        if (next != previous) {
+            LOGGER.info("KnotLink transport: {}", next.describe(6376));
+        }
+    }
+}
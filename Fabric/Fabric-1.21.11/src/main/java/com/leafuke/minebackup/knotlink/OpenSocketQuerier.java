@@ -3,49 +3,227 @@ package com.leafuke.minebackup.knotlink;
 import com.mojang.logging.LogUtils;
 import org.slf4j.Logger;
 
-import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class OpenSocketQuerier {
     private static final Logger LOGGER = LogUtils.getLogger();
-    private static final String SERVER_IP = "127.0.0.1";
     private static final int QUERIER_PORT = 6376;
 
+    // 复用到查询端口的长连接，避免补全/通知时频繁建连（仅限带长度信息的响应，文本响应之后的连接会关闭）
+    // 本机连接应当立即完成，建连超时取 1 秒，读取超时 5 秒
+    private static final QuerierConnectionPool POOL = new QuerierConnectionPool(QUERIER_PORT, 1000, 5000);
+    // 握手协商 mux 后使用的单连接多路复用通道
+    private static final QueryMultiplexer MULTIPLEXER = new QueryMultiplexer(QUERIER_PORT);
+    // 握手协商 batch 后，只读查询按 tick 合并发送
+    private static final QueryBatcher BATCHER = new QueryBatcher();
+    // 由查询结果与订阅心跳共同驱动的后端健康状态，后端离线时快速失败
+    private static final BackendHealth HEALTH = new BackendHealth();
+
     public static CompletableFuture<String> query(String appID, String openSocketID, String question) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Socket socket = new Socket(SERVER_IP, QUERIER_PORT);
-                 PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-                 InputStream in = socket.getInputStream()) {
-
-                socket.setSoTimeout(5000); // 5秒超时
-
-                String packet = String.format("%s-%s&*&%s", appID, openSocketID, question);
-                LOGGER.info("Sending query to KnotLink: {}", question);
-                // C++ 服务端没有按行读取，所以我们用 print 而不是 println，并且手动 flush
-                out.print(packet);
-                out.flush();
-
-                // 关键修正：不使用 readLine()，而是直接读取字节流
-                byte[] buffer = new byte[4096]; // 分配一个足够大的缓冲区
-                int bytesRead = in.read(buffer);
-
-                if (bytesRead > 0) {
-                    String response = new String(buffer, 0, bytesRead, StandardCharsets.UTF_8);
-                    LOGGER.info("Received query response: {}", response);
+        return queryResponse(appID, openSocketID, question).thenApply(QueryResponse::asString);
+    }
+
+    /**
+     * 发送查询并返回原始响应；列表类响应可以通过 {@link QueryResponse#entries()} 逐条遍历
+     */
+    public static CompletableFuture<QueryResponse> queryResponse(String appID, String openSocketID, String question) {
+        return queryRaw(String.format("%s-%s&*&", appID, openSocketID), question);
+    }
+
+    /**
+     * 发送只读查询（LIST_* 等）。协商了批处理时会与同一 tick 内的其它查询合并发送，
+     * 否则与 {@link #queryResponse} 相同。不要用于 BACKUP 等有副作用或耗时的命令。
+     */
+    public static CompletableFuture<QueryResponse> queryBatched(String appID, String openSocketID, String question) {
+        if (KnotLinkFeatures.isEnabled(KnotLinkFeatures.BATCH)) {
+            return BATCHER.submit(appID, openSocketID, question);
+        }
+        return queryResponse(appID, openSocketID, question);
+    }
+
+    /**
+     * 立即发送当前批次中收集到的查询（服务器每个 tick 结束时调用）
+     */
+    public static void flushBatch() {
+        BATCHER.flush();
+    }
+
+    /**
+     * 设置没有 tick 驱动时批次的最长收集时间
+     */
+    public static void setBatchWindowMs(long windowMs) {
+        BATCHER.setWindowMs(windowMs);
+    }
+
+    /**
+     * @param packetPrefix "appID-socketID&*&" 形式的请求前缀
+     */
+    static CompletableFuture<QueryResponse> queryRaw(String packetPrefix, String question) {
+        return queryRaw(packetPrefix, question, 0);
+    }
+
+    /**
+     * @param batchFrames BATCH 请求包含的查询数，响应由同样数量的 #序号:长度: 帧组成；普通查询为 0
+     */
+    static CompletableFuture<QueryResponse> queryRaw(String packetPrefix, String question, int batchFrames) {
+        if (!HEALTH.allowRequest()) {
+            LOGGER.debug("KnotLink backend is offline, not sending query: {}", question);
+            return CompletableFuture.completedFuture(QueryResponse.of("ERROR:BACKEND_OFFLINE"));
+        }
+        long start = System.nanoTime();
+        return send(packetPrefix, question, batchFrames).thenApply(response -> {
+            HEALTH.record(response, System.nanoTime() - start);
+            return response;
+        });
+    }
+
+    private static CompletableFuture<QueryResponse> send(String packetPrefix, String question, int batchFrames) {
+        if (KnotLinkFeatures.isEnabled(KnotLinkFeatures.MUX)) {
+            LOGGER.info("Sending multiplexed query to KnotLink: {}", question);
+            return MULTIPLEXER.query(packetPrefix, question).exceptionallyCompose(ex -> {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                if (cause instanceof QueryMultiplexer.UnavailableException) {
+                    // 请求尚未发出，改用普通连接
+                    return queryPooled(packetPrefix, question, batchFrames);
+                }
+                return CompletableFuture.completedFuture(QueryResponse.of("ERROR:COMMUNICATION_FAILED"));
+            });
+        }
+        return queryPooled(packetPrefix, question, batchFrames);
+    }
+
+    /**
+     * 通过连接池中的独占连接完成一次查询
+     */
+    private static CompletableFuture<QueryResponse> queryPooled(String packetPrefix, String question, int batchFrames) {
+        CompletableFuture<QueryResponse> future = KnotLinkExecutor.supply(() -> {
+            String packet = packetPrefix + question;
+            LOGGER.info("Sending query to KnotLink: {}", question);
+            try {
+                QuerierConnectionPool.Connection conn = POOL.acquire();
+                QueryResponse response;
+                try {
+                    response = exchange(conn, packet, batchFrames);
+                } catch (NotDeliveredException e) {
+                    // 复用的连接已被服务端关闭：请求确实没有送达，换一条新连接重试一次
+                    if (!conn.reused) {
+                        throw e;
+                    }
+                    POOL.onStaleReuse(conn);
+                    conn = POOL.open();
+                    response = exchange(conn, packet, batchFrames);
+                }
+                POOL.release(conn);
+
+                if (response != null) {
+                    LOGGER.info("Received query response for '{}' ({} bytes)", question, response.byteLength());
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Query response: {}", response.asString());
+                    }
                     return response;
                 } else {
                     LOGGER.warn("Received no response from KnotLink server.");
-                    return "ERROR:NO_RESPONSE";
+                    return QueryResponse.of("ERROR:NO_RESPONSE");
                 }
 
+            } catch (SocketTimeoutException e) {
+                // 请求已经发出，主程序可能正在执行（BACKUP 等），不能重发
+                LOGGER.error("KnotLink query '{}' timed out waiting for a reply, not retrying: {}", question, e.getMessage());
+                return QueryResponse.of("ERROR:COMMUNICATION_FAILED");
             } catch (Exception e) {
                 LOGGER.error("Failed to query KnotLink server for command '{}': {}", question, e.getMessage());
-                return "ERROR:COMMUNICATION_FAILED";
+                return QueryResponse.of("ERROR:COMMUNICATION_FAILED");
             }
         });
+        if (future.isCompletedExceptionally()) {
+            // I/O 执行器已满：快速失败，不再排队等待
+            LOGGER.warn("KnotLink I/O executor is saturated, rejecting query '{}' ({})", question, KnotLinkExecutor.describeStats());
+            return CompletableFuture.completedFuture(QueryResponse.of("ERROR:BACKEND_BUSY"));
+        }
+        return future;
+    }
+
+    /**
+     * 请求确实没有被主程序处理：写入失败，或连接在收到任何响应字节前就被关闭/重置。
+     * 只有这种情况可以换连接重发；读取超时时主程序可能已经在执行命令，不属于此类。
+     */
+    private static final class NotDeliveredException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotDeliveredException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * 在一条连接上完成一次请求/响应。
+     * 复用连接上写入失败，或在收到任何响应字节前读到 EOF/连接重置，说明服务端已关闭该连接，
+     * 抛出 {@link NotDeliveredException} 交给上层重试；新连接上读到 EOF 则视为无响应（返回 null）。
+     * 读取超时原样抛出，不重试。
+     */
+    private static QueryResponse exchange(QuerierConnectionPool.Connection conn, String packet, int batchFrames) throws IOException {
+        try {
+            try {
+                // C++ 服务端没有按行读取，所以直接写入字节，不追加换行
+                conn.write(ByteBuffer.wrap(packet.getBytes(StandardCharsets.UTF_8)));
+            } catch (SocketTimeoutException e) {
+                // 发送缓冲区一直是满的，请求可能已经部分送达，不能重发
+                throw e;
+            } catch (IOException e) {
+                throw new NotDeliveredException("Failed to send query: " + e.getMessage(), e);
+            }
+
+            // 不使用 readLine()，而是按响应自带的长度读取到消息结束
+            QueryResponse response = ResponseReader.read(conn, batchFrames);
+            if (response != null) {
+                return response;
+            }
+            POOL.invalidate(conn);
+            if (conn.reused) {
+                throw new NotDeliveredException("Pooled connection closed by KnotLink server", null);
+            }
+            return null;
+        } catch (IOException e) {
+            POOL.invalidate(conn);
+            throw e;
+        }
+    }
+
+    /**
+     * 后端健康状态（熔断器状态、查询延迟、最近心跳）
+     */
+    public static BackendHealth health() {
+        return HEALTH;
+    }
+
+    /**
+     * 连接池统计信息，用于对比长连接与逐次建连的开销；textClosed 为文本响应之后因无法复用而关闭的连接数
+     */
+    public static String describePoolStats() {
+        return String.format("opened=%d, reused=%d, evicted=%d, textClosed=%d, idle=%d, keepAlive=%s, avgConnect=%dus",
+                POOL.getConnectionsOpened(), POOL.getConnectionsReused(), POOL.getConnectionsEvicted(),
+                POOL.getConnectionsUnframed(), POOL.getIdleCount(), POOL.isKeepAliveSupported(), POOL.getAverageConnectMicros());
+    }
+
+    /**
+     * 批处理统计信息（批次数、平均批大小、节省的往返次数）
+     */
+    public static String describeBatchStats() {
+        return BATCHER.describeStats();
+    }
+
+    /**
+     * 关闭所有空闲连接（服务器停止时调用）
+     */
+    public static void shutdown() {
+        KnotLinkExecutor.shutdown();
+        MULTIPLEXER.close();
+        POOL.closeAll();
+        LOGGER.info("KnotLink querier pool closed ({}; batch: {}; health: {})", describePoolStats(), describeBatchStats(), HEALTH.describe());
     }
-}
\ No newline at end of file
+}
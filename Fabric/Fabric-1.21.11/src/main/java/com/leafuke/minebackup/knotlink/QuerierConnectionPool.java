@@ -0,0 +1,265 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OpenSocketQuerier 使用的长连接池。
+ * 复用到 KnotLink 查询端口的连接，使每次查询只需一次写入和一次读取；
+ * 空闲过久的连接会被淘汰，取出前会做一次廉价的健康检查。
+ * 连接通过当前的 {@link KnotLinkTransport} 建立（回环 TCP 或 Unix 域套接字）。
+ *
+ * 只有响应带长度信息（协商了 bin1 / deflate，或 BATCH 响应）时连接才能复用。
+ * 文本响应没有结尾标记，读完后无法确定连接上是否还有迟到的数据，这条连接会直接关闭；
+ * 现有主程序只发送文本响应，因此对它而言每次查询仍然新建连接，与最初的实现相同，连接池不起作用。
+ */
+final class QuerierConnectionPool {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final int MAX_IDLE = 4;
+    private static final long IDLE_TIMEOUT_MS = 30_000L;
+    // 连续多次复用到已被服务端关闭的连接时，认为服务端不支持长连接，退回短连接模式
+    private static final int MAX_STALE_REUSES = 3;
+
+    private final int port;
+    private final int connectTimeoutMs;
+    private final int soTimeoutMs;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+    private volatile boolean keepAliveSupported = true;
+    private final AtomicInteger consecutiveStaleReuses = new AtomicInteger();
+
+    // 统计信息
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final AtomicLong connectionsEvicted = new AtomicLong();
+    private final AtomicLong connectionsUnframed = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+
+    QuerierConnectionPool(int port, int connectTimeoutMs, int soTimeoutMs) {
+        this.port = port;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.soTimeoutMs = soTimeoutMs;
+    }
+
+    /**
+     * 取出一个可用连接：优先复用健康的空闲连接，否则新建
+     */
+    Connection acquire() throws IOException {
+        evictExpired();
+        KnotLinkTransport transport = KnotLinkTransports.get();
+        Connection conn;
+        while ((conn = idle.pollFirst()) != null) {
+            // 传输方式切换后，旧传输上的空闲连接不再复用
+            if (conn.transport == transport && conn.isHealthy()) {
+                connectionsReused.incrementAndGet();
+                conn.reused = true;
+                return conn;
+            }
+            connectionsEvicted.incrementAndGet();
+            conn.closeQuietly();
+        }
+        return open();
+    }
+
+    /**
+     * 新建一个连接（不经过空闲队列）
+     */
+    Connection open() throws IOException {
+        long start = System.nanoTime();
+        KnotLinkTransport transport = KnotLinkTransports.get();
+        SocketChannel channel = transport.connect(port, connectTimeoutMs);
+        try {
+            Connection conn = new Connection(transport, channel, soTimeoutMs);
+            connectNanos.addAndGet(System.nanoTime() - start);
+            connectionsOpened.incrementAndGet();
+            return conn;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还连接；不支持长连接或空闲队列已满时直接关闭
+     */
+    void release(Connection conn) {
+        if (conn.reused) {
+            consecutiveStaleReuses.set(0);
+        }
+        conn.reused = false;
+        if (conn.unframed) {
+            // 文本响应之后的连接不能复用
+            connectionsUnframed.incrementAndGet();
+            conn.closeQuietly();
+            return;
+        }
+        if (!keepAliveSupported || !conn.isHealthy() || idle.size() >= MAX_IDLE) {
+            conn.closeQuietly();
+            return;
+        }
+        conn.lastUsedAtMs = System.currentTimeMillis();
+        idle.offerFirst(conn);
+    }
+
+    /**
+     * 丢弃一个出错的连接
+     */
+    void invalidate(Connection conn) {
+        conn.closeQuietly();
+    }
+
+    /**
+     * 记录一次“复用到已被服务端关闭的连接”，多次发生后停止池化
+     */
+    void onStaleReuse(Connection conn) {
+        conn.closeQuietly();
+        connectionsEvicted.incrementAndGet();
+        if (consecutiveStaleReuses.incrementAndGet() >= MAX_STALE_REUSES && keepAliveSupported) {
+            keepAliveSupported = false;
+            closeAll();
+            LOGGER.info("KnotLink querier does not keep connections alive, falling back to one connection per query.");
+        }
+    }
+
+    void closeAll() {
+        Connection conn;
+        while ((conn = idle.pollFirst()) != null) {
+            conn.closeQuietly();
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Connection> it = idle.iterator();
+        while (it.hasNext()) {
+            Connection conn = it.next();
+            if (now - conn.lastUsedAtMs > IDLE_TIMEOUT_MS && idle.removeFirstOccurrence(conn)) {
+                connectionsEvicted.incrementAndGet();
+                conn.closeQuietly();
+            }
+        }
+    }
+
+    long getConnectionsOpened() { return connectionsOpened.get(); }
+    long getConnectionsReused() { return connectionsReused.get(); }
+    long getConnectionsEvicted() { return connectionsEvicted.get(); }
+    long getConnectionsUnframed() { return connectionsUnframed.get(); }
+    int getIdleCount() { return idle.size(); }
+    boolean isKeepAliveSupported() { return keepAliveSupported; }
+
+    /**
+     * 平均建连耗时（微秒），复用连接可以省掉这部分开销
+     */
+    long getAverageConnectMicros() {
+        long opened = connectionsOpened.get();
+        return opened == 0 ? 0 : connectNanos.get() / opened / 1000;
+    }
+
+    /**
+     * 池中的一条连接。
+     * Unix 域套接字不支持 Socket 适配器的读超时，因此通道统一设为非阻塞，
+     * 由每条连接自带的 Selector 实现带超时的读写。
+     */
+    static final class Connection {
+        final KnotLinkTransport transport;
+        final SocketChannel channel;
+        final int timeoutMs;
+        private final Selector selector;
+        private final SelectionKey key;
+        private final ByteBuffer probe = ByteBuffer.allocate(1);
+        volatile long lastUsedAtMs = System.currentTimeMillis();
+        boolean reused = false;
+        // 服务端已关闭连接（读到 EOF），不能再复用
+        boolean remoteClosed = false;
+        // 上一条响应没有长度信息，无法确定之后到达的数据属于哪条响应，不能再复用
+        boolean unframed = false;
+
+        private Connection(KnotLinkTransport transport, SocketChannel channel, int timeoutMs) throws IOException {
+            this.transport = transport;
+            this.channel = channel;
+            this.timeoutMs = timeoutMs;
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            this.key = channel.register(selector, 0);
+        }
+
+        /**
+         * 写出全部数据，发送缓冲区满时等待可写
+         */
+        void write(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                if (channel.write(data) == 0 && !await(SelectionKey.OP_WRITE, timeoutMs)) {
+                    throw new SocketTimeoutException("Write timed out");
+                }
+            }
+        }
+
+        /**
+         * 最多等待 timeout 毫秒读取数据
+         * @return 读到的字节数，连接被关闭时返回 -1
+         * @throws SocketTimeoutException 超时仍没有数据
+         */
+        int read(byte[] buffer, int offset, int length, int timeout) throws IOException {
+            ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+            long deadline = System.nanoTime() + timeout * 1_000_000L;
+            while (true) {
+                int bytesRead = channel.read(target);
+                if (bytesRead != 0) {
+                    return bytesRead;
+                }
+                long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMs <= 0 || !await(SelectionKey.OP_READ, remainingMs)) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+            }
+        }
+
+        private boolean await(int ops, long timeout) throws IOException {
+            key.interestOps(ops);
+            try {
+                return selector.select(Math.max(1L, timeout)) > 0;
+            } finally {
+                selector.selectedKeys().clear();
+                key.interestOps(0);
+            }
+        }
+
+        /**
+         * 健康检查：通道仍然打开，没有被对端关闭，上一条响应有明确的结尾，也没有残留的未读数据（残留数据说明上次响应没读完，不能复用）
+         */
+        boolean isHealthy() {
+            if (remoteClosed || unframed || !channel.isOpen() || !channel.isConnected()) {
+                return false;
+            }
+            try {
+                probe.clear();
+                return channel.read(probe) == 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
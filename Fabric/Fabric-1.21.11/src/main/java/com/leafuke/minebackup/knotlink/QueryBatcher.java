@@ -0,0 +1,150 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只读查询的批处理层（握手协商 {@link KnotLinkFeatures#BATCH} 后启用）。
+ *
+ * 同一个服务器 tick（或一个可配置的时间窗口）内提交的查询会被收集起来，
+ * 合并成一条 "BATCH &lt;n&gt;\n&lt;q0&gt;\n&lt;q1&gt;..." 请求发送，
+ * 响应按 #&lt;序号&gt;:&lt;字节长度&gt;:&lt;内容&gt; 拆分后分发给各自的 future。
+ * 同一批次内完全相同的查询只发送一次，重复的调用方拿到同一响应的独立视图，可以各自关闭。
+ */
+final class QueryBatcher {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAX_BATCH_SIZE = 32;
+
+    private final Object lock = new Object();
+    // key 为 "appID-socketID&*&" 前缀，value 为该前缀下按查询内容去重的等待列表
+    private Map<String, Map<String, CompletableFuture<QueryResponse>>> open = new LinkedHashMap<>();
+    private int openCount = 0;
+    private KnotLinkEventLoop.Cancellable windowTimer;
+    private volatile long windowMs = 50L;
+
+    // 统计信息
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong queriesSubmitted = new AtomicLong();
+    private final AtomicLong queriesBatched = new AtomicLong();
+    private final AtomicLong roundTripsSaved = new AtomicLong();
+
+    void setWindowMs(long windowMs) {
+        this.windowMs = Math.max(1L, windowMs);
+    }
+
+    CompletableFuture<QueryResponse> submit(String appID, String openSocketID, String question) {
+        queriesSubmitted.incrementAndGet();
+        String prefix = String.format("%s-%s&*&", appID, openSocketID);
+        boolean flushNow = false;
+        CompletableFuture<QueryResponse> future;
+        synchronized (lock) {
+            Map<String, CompletableFuture<QueryResponse>> group = open.computeIfAbsent(prefix, k -> new LinkedHashMap<>());
+            future = group.get(question);
+            if (future != null) {
+                // 同一批次内的重复查询直接复用结果；给每个调用方一份视图，关闭时不会影响其它调用方的遍历
+                roundTripsSaved.incrementAndGet();
+                return future.thenApply(QueryResponse::view);
+            }
+            future = new CompletableFuture<>();
+            group.put(question, future);
+            openCount++;
+            if (openCount >= MAX_BATCH_SIZE) {
+                flushNow = true;
+            } else if (windowTimer == null) {
+                // 没有服务器 tick 驱动时（例如客户端），由时间窗口兜底刷新
+                windowTimer = KnotLinkEventLoop.get().schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+        return future;
+    }
+
+    /**
+     * 发送当前收集到的所有查询（每个服务器 tick 结束时调用）
+     */
+    void flush() {
+        Map<String, Map<String, CompletableFuture<QueryResponse>>> toSend;
+        synchronized (lock) {
+            if (windowTimer != null) {
+                windowTimer.cancel();
+                windowTimer = null;
+            }
+            if (openCount == 0) {
+                return;
+            }
+            toSend = open;
+            open = new LinkedHashMap<>();
+            openCount = 0;
+        }
+        for (Map.Entry<String, Map<String, CompletableFuture<QueryResponse>>> entry : toSend.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void send(String prefix, Map<String, CompletableFuture<QueryResponse>> group) {
+        List<String> questions = new ArrayList<>(group.keySet());
+        if (questions.size() == 1) {
+            String question = questions.get(0);
+            OpenSocketQuerier.queryRaw(prefix, question).thenAccept(group.get(question)::complete);
+            return;
+        }
+
+        StringBuilder batch = new StringBuilder("BATCH ").append(questions.size());
+        for (String question : questions) {
+            batch.append('\n').append(question);
+        }
+        batchesSent.incrementAndGet();
+        queriesBatched.addAndGet(questions.size());
+        roundTripsSaved.addAndGet(questions.size() - 1);
+        LOGGER.debug("Sending KnotLink batch of {} queries", questions.size());
+
+        OpenSocketQuerier.queryRaw(prefix, batch.toString(), questions.size()).thenAccept(response -> {
+            List<QueryResponse> parts = response.isError() ? null : response.splitBatch(questions.size());
+            if (parts == null) {
+                if (response.isError()) {
+                    // 整批失败（通信错误等），每个查询都得到同样的错误
+                    for (String question : questions) {
+                        group.get(question).complete(response);
+                    }
+                    return;
+                }
+                // 响应格式不符：停用批处理，逐条重新查询（只读查询可以安全重试）
+                LOGGER.warn("Malformed KnotLink batch reply, re-sending {} queries individually", questions.size());
+                KnotLinkFeatures.disable(KnotLinkFeatures.BATCH);
+                for (String question : questions) {
+                    OpenSocketQuerier.queryRaw(prefix, question).thenAccept(group.get(question)::complete);
+                }
+                return;
+            }
+            for (int i = 0; i < questions.size(); i++) {
+                group.get(questions.get(i)).complete(parts.get(i));
+            }
+        });
+    }
+
+    long getBatchesSent() { return batchesSent.get(); }
+    long getRoundTripsSaved() { return roundTripsSaved.get(); }
+
+    /**
+     * 平均每批包含的查询数（仅统计实际合并发送的批次）
+     */
+    double getAverageBatchSize() {
+        long batches = batchesSent.get();
+        return batches == 0 ? 0.0 : (double) queriesBatched.get() / batches;
+    }
+
+    String describeStats() {
+        return String.format("submitted=%d, batches=%d, avgBatchSize=%.1f, savedRoundTrips=%d",
+                queriesSubmitted.get(), batchesSent.get(), getAverageBatchSize(), roundTripsSaved.get());
+    }
+}
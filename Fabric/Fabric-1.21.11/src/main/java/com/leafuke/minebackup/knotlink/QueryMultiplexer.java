@@ -0,0 +1,281 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单连接多路复用查询（握手协商 {@link KnotLinkFeatures#MUX} 后启用）。
+ *
+ * 请求格式：appID-socketID&*&MUX &lt;id&gt; &lt;question&gt;
+ * 响应格式：#&lt;id&gt;:&lt;字节长度&gt;:&lt;响应内容&gt;
+ *
+ * 所有请求共用一条注册在 {@link KnotLinkEventLoop} 上的连接，响应按 ID 分发，
+ * 可以乱序返回，慢请求（如 BACKUP）不会阻塞快请求（如 LIST_CONFIGS）。
+ */
+final class QueryMultiplexer implements KnotLinkEventLoop.Handler {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final long REQUEST_TIMEOUT_MS = 5000L;
+    private static final int MAX_HEADER_LENGTH = 24;
+
+    /**
+     * 多路复用连接不可用且请求尚未发出时抛出，调用方可以安全地改用普通连接重试
+     */
+    static final class UnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    private final int port;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+    // 以下字段仅在事件循环线程上访问
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean connected;
+    private final ArrayDeque<Pending> writeQueue = new ArrayDeque<>();
+    private ByteBuffer inbound = ByteBuffer.allocate(8192);
+
+    QueryMultiplexer(int port) {
+        this.port = port;
+    }
+
+    CompletableFuture<QueryResponse> query(String packetPrefix, String question) {
+        int id = nextId.incrementAndGet() & Integer.MAX_VALUE;
+        byte[] packet = (packetPrefix + "MUX " + id + " " + question).getBytes(StandardCharsets.UTF_8);
+        Pending request = new Pending(id, ByteBuffer.wrap(packet));
+        pending.put(id, request);
+        KnotLinkEventLoop loop = KnotLinkEventLoop.get();
+        // 先登记超时再发送，响应再快也能在 complete() 中取消到超时任务
+        request.timeout = loop.schedule(() -> {
+            if (pending.remove(id, request)) {
+                request.future.complete(QueryResponse.of("ERROR:NO_RESPONSE"));
+            }
+        }, REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        loop.execute(() -> enqueue(request));
+        return request.future;
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    void close() {
+        KnotLinkEventLoop.get().execute(() -> fail(new UnavailableException("Multiplexer closed")));
+    }
+
+    private void enqueue(Pending request) {
+        if (request.future.isDone()) {
+            return;
+        }
+        writeQueue.add(request);
+        try {
+            if (channel == null) {
+                connect();
+            }
+            if (connected) {
+                flushWrites();
+            }
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    private void connect() throws IOException {
+        channel = KnotLinkTransports.get().connectNonBlocking(port);
+        connected = channel.isConnected();
+        key = KnotLinkEventLoop.get().register(channel, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+        if (connected) {
+            LOGGER.info("Multiplexed KnotLink querier connected to {}", KnotLinkTransports.get().describe(port));
+        }
+    }
+
+    @Override
+    public void onConnectable(SelectionKey key) throws IOException {
+        if (channel.finishConnect()) {
+            connected = true;
+            key.interestOps(SelectionKey.OP_READ);
+            LOGGER.info("Multiplexed KnotLink querier connected to {}", KnotLinkTransports.get().describe(port));
+            flushWrites();
+        }
+    }
+
+    private void flushWrites() throws IOException {
+        Pending head;
+        while ((head = writeQueue.peek()) != null) {
+            if (head.future.isDone()) {
+                writeQueue.poll();
+                continue;
+            }
+            // 一旦开始写出就视为已发送，之后失败不能再改用其它连接重试
+            head.sent = true;
+            channel.write(head.packet);
+            if (head.packet.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            writeQueue.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void onWritable(SelectionKey key) throws IOException {
+        flushWrites();
+    }
+
+    @Override
+    public void onReadable(SelectionKey key, ByteBuffer readBuffer) throws IOException {
+        int bytesRead = channel.read(readBuffer);
+        if (bytesRead < 0) {
+            fail(new IOException("Multiplexed connection closed by KnotLink server"));
+            return;
+        }
+        readBuffer.flip();
+        if (inbound.remaining() < readBuffer.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(inbound.capacity() * 2, inbound.position() + readBuffer.remaining()));
+            inbound.flip();
+            grown.put(inbound);
+            inbound = grown;
+        }
+        inbound.put(readBuffer);
+        decodeFrames();
+    }
+
+    /**
+     * 从累积缓冲区中解析出所有完整的响应帧
+     */
+    private void decodeFrames() throws IOException {
+        inbound.flip();
+        while (inbound.hasRemaining()) {
+            int start = inbound.position();
+            if (inbound.get(start) != '#') {
+                throw new IOException("Malformed multiplexed reply");
+            }
+            int firstColon = indexOf(start + 1, ':');
+            int secondColon = firstColon < 0 ? -1 : indexOf(firstColon + 1, ':');
+            if (secondColon < 0) {
+                if (inbound.limit() - start > MAX_HEADER_LENGTH) {
+                    throw new IOException("Malformed multiplexed reply header");
+                }
+                break; // 头部尚未收全
+            }
+            int id = parseInt(start + 1, firstColon);
+            int length = parseInt(firstColon + 1, secondColon);
+            int payloadStart = secondColon + 1;
+            if (inbound.limit() - payloadStart < length) {
+                break; // 内容尚未收全
+            }
+            byte[] payload = new byte[length];
+            inbound.get(payloadStart, payload);
+            inbound.position(payloadStart + length);
+            complete(id, QueryResponse.wrap(payload, length));
+        }
+        inbound.compact();
+    }
+
+    private void complete(int id, QueryResponse response) {
+        Pending request = pending.remove(id);
+        if (request == null) {
+            LOGGER.debug("Dropping multiplexed reply for unknown or timed out request #{}", id);
+            return;
+        }
+        request.timeout.cancel();
+        request.future.complete(response);
+    }
+
+    private int indexOf(int from, char c) {
+        int end = Math.min(inbound.limit(), from + MAX_HEADER_LENGTH);
+        for (int i = from; i < end; i++) {
+            if (inbound.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int parseInt(int from, int to) throws IOException {
+        if (from >= to) {
+            throw new IOException("Malformed multiplexed reply header");
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = inbound.get(i);
+            if (b < '0' || b > '9') {
+                throw new IOException("Malformed multiplexed reply header");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    @Override
+    public void onError(IOException e) {
+        fail(e);
+    }
+
+    /**
+     * 关闭连接并结束所有未完成的请求：尚未发出的请求以 UnavailableException 结束，
+     * 已发出的请求返回通信失败。连接出错后停用多路复用，直到下一次握手重新协商。
+     */
+    private void fail(IOException cause) {
+        if (channel != null) {
+            LOGGER.warn("Multiplexed KnotLink connection failed: {}", cause.getMessage());
+            KnotLinkFeatures.disable(KnotLinkFeatures.MUX);
+        }
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+        connected = false;
+        writeQueue.clear();
+        inbound.clear();
+        for (Pending request : pending.values()) {
+            if (pending.remove(request.id, request)) {
+                if (request.timeout != null) {
+                    request.timeout.cancel();
+                }
+                if (request.sent) {
+                    request.future.complete(QueryResponse.of("ERROR:COMMUNICATION_FAILED"));
+                } else {
+                    request.future.completeExceptionally(new UnavailableException(cause.getMessage()));
+                }
+            }
+        }
+    }
+
+    private static final class Pending {
+        private final int id;
+        private final ByteBuffer packet;
+        private final CompletableFuture<QueryResponse> future = new CompletableFuture<>();
+        private volatile KnotLinkEventLoop.Cancellable timeout;
+        private volatile boolean sent;
+
+        private Pending(int id, ByteBuffer packet) {
+            this.id = id;
+            this.packet = packet;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package com.leafuke.minebackup.knotlink;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.Inflater;
+
+/**
+ * KnotLink 查询的原始响应。
+ * 响应以 UTF-8 字节保存，只有在需要时才解码；对于 "OK:a;b;c" 形式的列表响应，
+ * {@link #entries()} 按需逐条解码，不会先拼出一个包含全部内容的大字符串。
+ * 协商了 bin1 时响应可能是 {@link KnotLinkBinaryCodec} 的二进制帧，此时只保存正文，
+ * 条目按长度前缀直接定位，{@link #asString()} 仍返回等价的文本形式。
+ * 协商了 deflate 时较大的列表响应会被压缩，此时只保存压缩后的数据，
+ * {@link #entries()} 边解压边切分条目，不会先解压出完整内容。
+ * 每次遍历压缩响应都会占用一个原生 zlib 解压器：遍历完或出错时自动释放，
+ * 提前结束遍历的调用方应通过 try-with-resources 调用 {@link #close()} 释放。
+ * close() 之后响应仍可再次遍历；被多个线程共享的响应不要关闭，以免结束其它线程正在使用的解压器，
+ * 需要分给多个调用方时用 {@link #view()} 给每个调用方一份可以各自关闭的视图。
+ */
+public final class QueryResponse implements AutoCloseable {
+    private static final byte[] OK_PREFIX = {'O', 'K', ':'};
+    private static final byte[] ERROR_PREFIX = {'E', 'R', 'R', 'O', 'R', ':'};
+
+    // data 中保存的内容形式
+    private static final int TEXT = 0;
+    private static final int BINARY = 1;
+    private static final int DEFLATED = 2;
+
+    private final byte[] data;
+    private final int length;
+    private final int encoding;
+    // 压缩响应：压缩数据在 data 中的起始位置，以及解压后的长度
+    private int deflatedStart;
+    private int inflatedLength;
+    private String text;
+    // 尚未遍历完的压缩条目迭代器，close() 时释放它们的解压器
+    private List<InflatingEntryIterator> openIterators;
+
+    QueryResponse(byte[] data, int length) {
+        this(data, length, TEXT);
+    }
+
+    private QueryResponse(byte[] data, int length, int encoding) {
+        this.data = data;
+        this.length = length;
+        this.encoding = encoding;
+    }
+
+    /**
+     * 包装收到的一段完整响应：以 0xB1 开头且帧长度吻合时按二进制帧解析，否则按文本处理
+     */
+    static QueryResponse wrap(byte[] data, int length) {
+        if (length > 0 && data[0] == KnotLinkBinaryCodec.MAGIC) {
+            int[] bodyLength = new int[1];
+            try {
+                int headerLength = KnotLinkBinaryCodec.readHeader(data, 0, length, bodyLength);
+                if (headerLength > 0 && headerLength + bodyLength[0] == length) {
+                    return binary(Arrays.copyOfRange(data, headerLength, length));
+                }
+            } catch (IllegalArgumentException ignored) {
+                // 版本不受支持或格式不符，按文本处理
+            }
+        }
+        return new QueryResponse(data, length);
+    }
+
+    /**
+     * 由二进制帧的正文构造响应
+     */
+    static QueryResponse binary(byte[] body) {
+        if (body.length >= 2 && body[0] == KnotLinkBinaryCodec.KIND_REPLY) {
+            return new QueryResponse(body, body.length, BINARY);
+        }
+        if (body.length >= 2 && body[0] == KnotLinkBinaryCodec.KIND_DEFLATED_REPLY) {
+            int[] position = {1};
+            int inflatedLength;
+            try {
+                inflatedLength = KnotLinkBinaryCodec.readVarint(body, body.length, position);
+            } catch (IllegalArgumentException e) {
+                return of("ERROR:MALFORMED_REPLY");
+            }
+            if (inflatedLength > KnotLinkBinaryCodec.MAX_INFLATED_LENGTH) {
+                return of("ERROR:MALFORMED_REPLY");
+            }
+            if (!KnotLinkBinaryCodec.usesKnownDictionary(body, position[0], body.length - position[0])) {
+                return of("ERROR:MALFORMED_REPLY");
+            }
+            QueryResponse response = new QueryResponse(body, body.length, DEFLATED);
+            response.deflatedStart = position[0];
+            response.inflatedLength = inflatedLength;
+            return response;
+        }
+        return new QueryResponse(body, body.length);
+    }
+
+    /**
+     * 构造一个本地生成的响应（例如通信失败时的 ERROR:xxx）
+     */
+    public static QueryResponse of(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        QueryResponse response = new QueryResponse(bytes, bytes.length);
+        response.text = text;
+        return response;
+    }
+
+    /**
+     * 与本响应共用同一份数据、但各自跟踪解压器的视图：关闭视图不影响本响应及其它视图上正在进行的遍历
+     */
+    QueryResponse view() {
+        QueryResponse view = new QueryResponse(data, length, encoding);
+        view.deflatedStart = deflatedStart;
+        view.inflatedLength = inflatedLength;
+        view.text = text;
+        return view;
+    }
+
+    public boolean isOk() {
+        if (encoding == DEFLATED) {
+            return true; // 只有 OK 列表响应会被压缩
+        }
+        if (encoding == BINARY) {
+            return data[1] == KnotLinkBinaryCodec.STATUS_OK;
+        }
+        return startsWith(OK_PREFIX);
+    }
+
+    public boolean isError() {
+        if (encoding == DEFLATED) {
+            return false;
+        }
+        if (encoding == BINARY) {
+            return data[1] == KnotLinkBinaryCodec.STATUS_ERROR;
+        }
+        return startsWith(ERROR_PREFIX);
+    }
+
+    boolean isBinary() {
+        return encoding != TEXT;
+    }
+
+    boolean isCompressed() {
+        return encoding == DEFLATED;
+    }
+
+    public int byteLength() {
+        return length;
+    }
+
+    /**
+     * 完整响应文本（会解码全部内容，列表响应请优先使用 {@link #entries()}）
+     */
+    public String asString() {
+        if (text == null) {
+            text = switch (encoding) {
+                case BINARY -> binaryToText();
+                case DEFLATED -> "OK:" + new String(inflateAll(), StandardCharsets.UTF_8);
+                default -> new String(data, 0, length, StandardCharsets.UTF_8);
+            };
+        }
+        return text;
+    }
+
+    private byte[] inflateAll() {
+        byte[] content = new byte[inflatedLength];
+        Inflater inflater = KnotLinkBinaryCodec.newInflater(data, deflatedStart, length - deflatedStart);
+        try {
+            int filled = 0;
+            while (filled < content.length) {
+                int n = KnotLinkBinaryCodec.inflate(inflater, content, filled, content.length - filled);
+                if (n < 0) {
+                    break;
+                }
+                filled += n;
+            }
+            return filled == content.length ? content : Arrays.copyOf(content, filled);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private String binaryToText() {
+        if (isError()) {
+            int[] position = {2};
+            int errorLength = KnotLinkBinaryCodec.readVarint(data, length, position);
+            return "ERROR:" + new String(data, position[0], Math.min(errorLength, length - position[0]), StandardCharsets.UTF_8);
+        }
+        StringBuilder builder = new StringBuilder(length + 8).append("OK:");
+        boolean first = true;
+        for (String entry : entries()) {
+            if (!first) {
+                builder.append(';');
+            }
+            builder.append(entry);
+            first = false;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 按 ';' 分隔逐条遍历 "OK:" 之后的条目，跳过空条目；非 OK 响应没有条目
+     */
+    public Iterable<String> entries() {
+        if (!isOk()) {
+            return java.util.Collections::emptyIterator;
+        }
+        if (encoding == BINARY) {
+            return BinaryEntryIterator::new;
+        }
+        if (encoding == DEFLATED) {
+            return InflatingEntryIterator::new;
+        }
+        return () -> new EntryIterator(OK_PREFIX.length);
+    }
+
+    /**
+     * 释放尚未遍历完的压缩条目迭代器占用的原生解压器；未压缩的响应没有需要释放的资源
+     */
+    @Override
+    public void close() {
+        List<InflatingEntryIterator> iterators;
+        synchronized (this) {
+            if (openIterators == null || openIterators.isEmpty()) {
+                return;
+            }
+            iterators = new ArrayList<>(openIterators);
+            openIterators.clear();
+        }
+        for (InflatingEntryIterator iterator : iterators) {
+            iterator.release();
+        }
+    }
+
+    private synchronized void track(InflatingEntryIterator iterator) {
+        if (openIterators == null) {
+            openIterators = new ArrayList<>(1);
+        }
+        openIterators.add(iterator);
+    }
+
+    private synchronized void untrack(InflatingEntryIterator iterator) {
+        if (openIterators != null) {
+            openIterators.remove(iterator);
+        }
+    }
+
+    /**
+     * 把批量查询的响应拆成各子查询的响应。
+     * 格式为依次拼接的 #&lt;序号&gt;:&lt;字节长度&gt;:&lt;内容&gt;，序号从 0 开始。
+     * @return 按序号排列的子响应；格式不符或数量不对时返回 null
+     */
+    List<QueryResponse> splitBatch(int expected) {
+        if (encoding != TEXT) {
+            return null;
+        }
+        QueryResponse[] parts = new QueryResponse[expected];
+        int position = 0;
+        int found = 0;
+        while (position < length) {
+            if (data[position] != '#') {
+                return null;
+            }
+            int firstColon = indexOf(':', position + 1);
+            int secondColon = firstColon < 0 ? -1 : indexOf(':', firstColon + 1);
+            if (secondColon < 0) {
+                return null;
+            }
+            int index = parseDigits(position + 1, firstColon);
+            int partLength = parseDigits(firstColon + 1, secondColon);
+            int partStart = secondColon + 1;
+            if (index < 0 || index >= expected || partLength < 0 || partStart + partLength > length || parts[index] != null) {
+                return null;
+            }
+            byte[] partData = new byte[partLength];
+            System.arraycopy(data, partStart, partData, 0, partLength);
+            parts[index] = wrap(partData, partLength);
+            found++;
+            position = partStart + partLength;
+        }
+        if (found != expected) {
+            return null;
+        }
+        List<QueryResponse> result = new ArrayList<>(expected);
+        for (QueryResponse part : parts) {
+            result.add(part);
+        }
+        return result;
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < length; i++) {
+            if (data[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int parseDigits(int from, int to) {
+        if (from >= to || to - from > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            if (data[i] < '0' || data[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (data[i] - '0');
+        }
+        return value;
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final class EntryIterator implements Iterator<String> {
+        private int position;
+        private int nextStart = -1;
+        private int nextEnd = -1;
+
+        private EntryIterator(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // ';' 是单字节 ASCII，不会出现在 UTF-8 多字节字符内部，可以直接按字节切分
+            while (nextStart < 0 && position < length) {
+                int end = position;
+                while (end < length && data[end] != ';') {
+                    end++;
+                }
+                if (end > position) {
+                    nextStart = position;
+                    nextEnd = end;
+                }
+                position = end + 1;
+            }
+            return nextStart >= 0;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String entry = new String(data, nextStart, nextEnd - nextStart, StandardCharsets.UTF_8);
+            nextStart = -1;
+            return entry;
+        }
+    }
+
+    /**
+     * 二进制响应的条目：每条都有长度前缀，不需要逐字节查找分隔符
+     */
+    private final class BinaryEntryIterator implements Iterator<String> {
+        private final int[] position = {2};
+        private int remaining;
+
+        private BinaryEntryIterator() {
+            this.remaining = KnotLinkBinaryCodec.readVarint(data, length, position);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0 && position[0] < length;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int entryLength = KnotLinkBinaryCodec.readVarint(data, length, position);
+            if (entryLength > length - position[0]) {
+                throw new NoSuchElementException("Truncated binary KnotLink reply");
+            }
+            String entry = new String(data, position[0], entryLength, StandardCharsets.UTF_8);
+            position[0] += entryLength;
+            remaining--;
+            return entry;
+        }
+    }
+
+    /**
+     * 压缩响应的条目：每次解压一块数据并切出其中完整的条目，跨块的条目暂存在 pending 中
+     */
+    private final class InflatingEntryIterator implements Iterator<String> {
+        // 第一次解压时才创建，遍历结束、出错或响应被关闭后为 null
+        private Inflater inflater;
+        private boolean started = false;
+        private final byte[] chunk = new byte[8192];
+        private int chunkPosition = 0;
+        private int chunkLimit = 0;
+        // 跨越两块数据的条目的前半部分
+        private byte[] pending = new byte[256];
+        private int pendingLength = 0;
+        private boolean finished = false;
+        private String next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !finished) {
+                if (chunkPosition == chunkLimit && !refill()) {
+                    finished = true;
+                    release();
+                    if (pendingLength > 0) {
+                        next = new String(pending, 0, pendingLength, StandardCharsets.UTF_8);
+                        pendingLength = 0;
+                    }
+                    break;
+                }
+                int end = chunkPosition;
+                while (end < chunkLimit && chunk[end] != ';') {
+                    end++;
+                }
+                if (end == chunkLimit) {
+                    // 条目在这一块中没有结束
+                    appendPending(chunkPosition, end);
+                    chunkPosition = end;
+                    continue;
+                }
+                if (pendingLength > 0) {
+                    appendPending(chunkPosition, end);
+                    next = new String(pending, 0, pendingLength, StandardCharsets.UTF_8);
+                    pendingLength = 0;
+                } else if (end > chunkPosition) {
+                    next = new String(chunk, chunkPosition, end - chunkPosition, StandardCharsets.UTF_8);
+                }
+                chunkPosition = end + 1;
+                if (next != null && next.isEmpty()) {
+                    next = null;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String entry = next;
+            next = null;
+            return entry;
+        }
+
+        private boolean refill() {
+            int n;
+            synchronized (this) {
+                if (inflater == null) {
+                    if (started) {
+                        // 响应已被关闭
+                        return false;
+                    }
+                    started = true;
+                    inflater = KnotLinkBinaryCodec.newInflater(data, deflatedStart, length - deflatedStart);
+                    track(this);
+                }
+                try {
+                    n = KnotLinkBinaryCodec.inflate(inflater, chunk, 0, chunk.length);
+                } catch (RuntimeException e) {
+                    release();
+                    throw e;
+                }
+            }
+            if (n < 0) {
+                return false;
+            }
+            chunkPosition = 0;
+            chunkLimit = n;
+            return true;
+        }
+
+        synchronized void release() {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+                untrack(this);
+            }
+        }
+
+        private void appendPending(int from, int to) {
+            int count = to - from;
+            if (pendingLength + count > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + count));
+            }
+            System.arraycopy(chunk, from, pending, pendingLength, count);
+            pendingLength += count;
+        }
+    }
+}
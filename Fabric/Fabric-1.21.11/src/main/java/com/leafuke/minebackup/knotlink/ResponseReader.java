@@ -0,0 +1,211 @@
+package com.leafuke.minebackup.knotlink;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 流式读取 KnotLink 查询响应，不再受单次 read 的 4096 字节限制。
+ *
+ * 响应的结尾只由数据本身决定，不依赖读取间隔：
+ * 1) 协商了 bin1 / deflate 时响应是带长度前缀的二进制帧，读满帧头声明的长度；
+ * 2) BATCH 请求的响应由指定数量的 #序号:长度:内容 帧组成，按各帧的长度读满全部帧；
+ * 3) 其余文本响应（现有主程序只发送文本）没有长度前缀，也没有结束标记，
+ *    一直读到服务端关闭连接，或连续 {@value #TEXT_IDLE_MS}ms 没有新数据为止（总时长不超过连接的读取超时）；
+ *    静默之后仍可能有迟到的数据，无法判断属于哪条响应，因此这条连接不再复用，避免被当成下一次查询的响应。
+ * 读取使用可增长的缓冲区，较小的缓冲区读完后归还到池中复用。
+ */
+final class ResponseReader {
+    private static final int INITIAL_SIZE = 4096;
+    // 超过该大小的缓冲区不放回池中，避免长期占用内存
+    private static final int MAX_POOLED_SIZE = 256 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 8;
+    // #序号:长度: 帧头的最大长度
+    private static final int MAX_BATCH_HEADER_LENGTH = 24;
+    // 文本响应在这段时间内没有新数据即视为结束；服务端回复后关闭连接时不需要等待
+    static final int TEXT_IDLE_MS = 50;
+
+    private static final ConcurrentLinkedQueue<byte[]> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private ResponseReader() {}
+
+    /**
+     * 读取一条完整响应
+     * @param batchFrames BATCH 请求包含的查询数；普通查询为 0
+     * @return 响应；连接在收到任何数据前就被关闭或重置时返回 null（此时请求没有被处理）
+     * @throws SocketTimeoutException 超时仍未收到响应；请求已经发出，调用方不能重发
+     */
+    static QueryResponse read(QuerierConnectionPool.Connection conn, int batchFrames) throws IOException {
+        byte[] buffer = borrow();
+        try {
+            // 第一段数据按连接的常规超时等待
+            int bytesRead;
+            try {
+                bytesRead = conn.read(buffer, 0, buffer.length, conn.timeoutMs);
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                // 连接被重置
+                bytesRead = -1;
+            }
+            if (bytesRead <= 0) {
+                conn.remoteClosed = true;
+                return null;
+            }
+            int length = bytesRead;
+            if (buffer[0] == KnotLinkBinaryCodec.MAGIC) {
+                QueryResponse response = readBinary(conn, buffer, length);
+                if (response != null) {
+                    return response;
+                }
+                // 帧头不合法，按无长度前缀的文本响应处理
+            }
+
+            if (batchFrames > 0 && buffer[0] == '#') {
+                int missing;
+                while ((missing = missingBatchBytes(buffer, length, batchFrames)) > 0) {
+                    if (length + missing > buffer.length) {
+                        byte[] grown = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + missing));
+                        giveBack(buffer);
+                        buffer = grown;
+                    }
+                    bytesRead = conn.read(buffer, length, buffer.length - length, conn.timeoutMs);
+                    if (bytesRead < 0) {
+                        conn.remoteClosed = true;
+                        throw new SocketException("KnotLink server closed the connection inside a batch reply");
+                    }
+                    length += bytesRead;
+                }
+                if (missing == 0) {
+                    return QueryResponse.wrap(Arrays.copyOf(buffer, length), length);
+                }
+                // 帧格式不符，按无长度前缀的文本响应处理（批处理层会改为逐条查询）
+            }
+
+            // 没有长度信息：读到连接关闭或数据流静默为止
+            conn.unframed = true;
+            long deadline = System.nanoTime() + conn.timeoutMs * 1_000_000L;
+            while (true) {
+                if (length == buffer.length) {
+                    byte[] grown = Arrays.copyOf(buffer, buffer.length * 2);
+                    giveBack(buffer);
+                    buffer = grown;
+                }
+                long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMs <= 0) {
+                    break;
+                }
+                try {
+                    bytesRead = conn.read(buffer, length, buffer.length - length, (int) Math.min(TEXT_IDLE_MS, remainingMs));
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                if (bytesRead < 0) {
+                    conn.remoteClosed = true;
+                    break;
+                }
+                length += bytesRead;
+            }
+            return QueryResponse.wrap(Arrays.copyOf(buffer, length), length);
+        } finally {
+            giveBack(buffer);
+        }
+    }
+
+    /**
+     * 检查 BATCH 响应是否已经完整
+     * @return 0 表示 frames 个帧已全部收齐；正数为至少还需要的字节数；-1 表示帧格式不符
+     */
+    private static int missingBatchBytes(byte[] data, int length, int frames) {
+        int position = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            if (position >= length) {
+                return 1;
+            }
+            if (data[position] != '#') {
+                return -1;
+            }
+            int headerStart = position;
+            long partLength = -1;
+            int colons = 0;
+            position++;
+            while (colons < 2) {
+                if (position >= length) {
+                    return position - headerStart > MAX_BATCH_HEADER_LENGTH ? -1 : 1;
+                }
+                byte b = data[position++];
+                if (b == ':') {
+                    colons++;
+                    if (colons == 2 && partLength < 0) {
+                        return -1;
+                    }
+                } else if (b >= '0' && b <= '9') {
+                    if (colons == 1) {
+                        partLength = (partLength < 0 ? 0 : partLength * 10) + (b - '0');
+                    }
+                } else {
+                    return -1;
+                }
+                if (position - headerStart > MAX_BATCH_HEADER_LENGTH || partLength > KnotLinkBinaryCodec.MAX_FRAME_LENGTH) {
+                    return -1;
+                }
+            }
+            long end = position + partLength;
+            if (end > length) {
+                return (int) (end - length);
+            }
+            position = (int) end;
+        }
+        return position == length ? 0 : -1;
+    }
+
+    /**
+     * 按帧头中的长度读取二进制响应的剩余部分
+     * @return 响应；帧头不合法时返回 null
+     */
+    private static QueryResponse readBinary(QuerierConnectionPool.Connection conn, byte[] buffer, int length) throws IOException {
+        int[] bodyLength = new int[1];
+        int headerLength;
+        try {
+            while ((headerLength = KnotLinkBinaryCodec.readHeader(buffer, 0, length, bodyLength)) < 0) {
+                int bytesRead = conn.read(buffer, length, buffer.length - length, conn.timeoutMs);
+                if (bytesRead < 0) {
+                    conn.remoteClosed = true;
+                    throw new SocketException("KnotLink server closed the connection inside a binary frame header");
+                }
+                length += bytesRead;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // 正文直接读入最终大小的数组，不经过可增长缓冲区
+        byte[] body = new byte[bodyLength[0]];
+        int filled = Math.min(length - headerLength, body.length);
+        System.arraycopy(buffer, headerLength, body, 0, filled);
+        if (length - headerLength > body.length) {
+            throw new IOException("Unexpected data after binary KnotLink reply");
+        }
+        while (filled < body.length) {
+            int bytesRead = conn.read(body, filled, body.length - filled, conn.timeoutMs);
+            if (bytesRead < 0) {
+                conn.remoteClosed = true;
+                throw new SocketException("KnotLink server closed the connection inside a binary frame");
+            }
+            filled += bytesRead;
+        }
+        return QueryResponse.binary(body);
+    }
+
+    private static byte[] borrow() {
+        byte[] buffer = BUFFERS.poll();
+        return buffer != null ? buffer : new byte[INITIAL_SIZE];
+    }
+
+    private static void giveBack(byte[] buffer) {
+        if (buffer.length <= MAX_POOLED_SIZE && BUFFERS.size() < MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buffer);
+        }
+    }
+}
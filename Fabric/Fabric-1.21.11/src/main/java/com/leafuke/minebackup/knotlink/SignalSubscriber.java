@@ -3,18 +3,58 @@ package com.leafuke.minebackup.knotlink;
 import com.mojang.logging.LogUtils;
 import org.slf4j.Logger;
 
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订阅 KnotLink 广播信号。
+ * 连接断开（例如主程序重启）后按指数退避加随机抖动自动重连，
+ * 并在每次连接成功后重新发送 appID-signalID 订阅请求。
+ */
 public class SignalSubscriber {
     private static final Logger LOGGER = LogUtils.getLogger();
-    private TcpClient knotLinkSubscriber;
+    private static final int SUBSCRIBER_PORT = 6372;
+    private static final long INITIAL_BACKOFF_MS = 500L;
+    private static final long MAX_BACKOFF_MS = 30_000L;
+
     private final String appID;
     private final String signalID;
 
     // 定义一个回调接口
     public interface SignalListener {
         void onSignalReceived(String data);
+
+        /**
+         * 收到已解码的二进制事件（bin1）；默认还原为文本后交给 {@link #onSignalReceived}
+         */
+        default void onEventReceived(Map<String, String> event) {
+            onSignalReceived(KnotLinkBinaryCodec.toText(event));
+        }
     }
 
-    private SignalListener signalListener;
+    /**
+     * 订阅连接的状态
+     */
+    public enum State {
+        STOPPED,
+        CONNECTING,
+        CONNECTED,
+        WAITING_TO_RECONNECT
+    }
+
+    private volatile SignalListener signalListener;
+    private volatile TcpClient knotLinkSubscriber;
+    private volatile State state = State.STOPPED;
+    private volatile boolean stopped = true;
+    private KnotLinkEventLoop.Cancellable reconnectTimer;
+    private int consecutiveFailures = 0;
+
+    // 统计信息
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private final AtomicLong disconnectCount = new AtomicLong();
+    private volatile long connectedSinceMs = 0L;
 
     public SignalSubscriber(String appID, String signalID) {
         this.appID = appID;
@@ -25,31 +65,166 @@ public class SignalSubscriber {
         this.signalListener = listener;
     }
 
+    /**
+     * 开始订阅；首次连接失败时同样进入自动重连
+     */
     public void start() {
-        knotLinkSubscriber = new TcpClient();
-        // SignalSubscriber 连接到端口 6372
-        if (knotLinkSubscriber.connectToServer("127.0.0.1", 6372)) {
-            // 设置数据接收监听器
-            knotLinkSubscriber.setDataReceivedListener(data -> {
-                LOGGER.debug("收到 KnotLink 广播数据: {}", data);
-                if (signalListener != null) {
-                    signalListener.onSignalReceived(data);
+        synchronized (this) {
+            if (!stopped) {
+                return;
+            }
+            stopped = false;
+            consecutiveFailures = 0;
+        }
+        connect();
+    }
+
+    private void connect() {
+        TcpClient client = new TcpClient();
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            reconnectTimer = null;
+            state = State.CONNECTING;
+            // 先登记当前连接，连接建立后立刻断开时回调也能识别出来
+            knotLinkSubscriber = client;
+        }
+        // 设置数据接收监听器
+        client.setDataReceivedListener(data -> {
+            LOGGER.debug("收到 KnotLink 广播数据: {}", data);
+            // 广播事件来自主程序本身，说明后端在线
+            OpenSocketQuerier.health().recordBackendActivity();
+            SignalListener listener = signalListener;
+            if (listener != null) {
+                listener.onSignalReceived(data);
+            }
+        });
+        client.setEventReceivedListener(event -> {
+            OpenSocketQuerier.health().recordBackendActivity();
+            SignalListener listener = signalListener;
+            if (listener != null) {
+                listener.onEventReceived(event);
+            }
+        });
+        client.setHeartbeatListener(answered -> OpenSocketQuerier.health().recordHeartbeat(answered));
+        client.setDisconnectListener(() -> onDisconnected(client));
+
+        // SignalSubscriber 连接到端口 6372（或配置目录下对应的 Unix 域套接字）
+        if (!client.connectToServer(KnotLinkTransports.get(), SUBSCRIBER_PORT)) {
+            synchronized (this) {
+                if (knotLinkSubscriber == client) {
+                    knotLinkSubscriber = null;
                 }
-            });
+            }
+            scheduleReconnect();
+            return;
+        }
+        synchronized (this) {
+            if (stopped || knotLinkSubscriber != client) {
+                client.close();
+                return;
+            }
+            state = State.CONNECTED;
+            connectedSinceMs = System.currentTimeMillis();
+            consecutiveFailures = 0;
+        }
+
+        // 发送订阅请求（重连后同样需要重新订阅）
+        String s_key = appID + "-" + signalID;
+        client.sendData(s_key);
+        LOGGER.info("SignalSubscriber started and subscribed to {}.", s_key);
+    }
+
+    private void onDisconnected(TcpClient client) {
+        synchronized (this) {
+            if (stopped || knotLinkSubscriber != client) {
+                return;
+            }
+            knotLinkSubscriber = null;
+            connectedSinceMs = 0L;
+        }
+        disconnectCount.incrementAndGet();
+        // 主程序重启后之前协商的特性不再有效，等待下一次握手重新协商
+        KnotLinkFeatures.reset();
+        // KnotLink 服务端已不可达，查询直接快速失败，直到重连成功或探测请求成功
+        OpenSocketQuerier.health().recordSubscriberLost();
+        LOGGER.warn("SignalSubscriber lost its connection, reconnecting.");
+        scheduleReconnect();
+    }
 
-            // 发送订阅请求
-            String s_key = appID + "-" + signalID;
-            knotLinkSubscriber.sendData(s_key);
-            LOGGER.info("SignalSubscriber started and subscribed to {}.", s_key);
-        } else {
-            LOGGER.error("SignalSubscriber failed to start.");
+    private void scheduleReconnect() {
+        long delayMs;
+        synchronized (this) {
+            if (stopped || reconnectTimer != null) {
+                return;
+            }
+            state = State.WAITING_TO_RECONNECT;
+            delayMs = nextBackoffMs(consecutiveFailures++);
+            reconnectTimer = KnotLinkEventLoop.get().schedule(() -> {
+                reconnectCount.incrementAndGet();
+                // 建连是阻塞操作，不能占用事件循环线程
+                Thread.ofVirtual().name("minebackup-knotlink-reconnect").start(this::connect);
+            }, delayMs, TimeUnit.MILLISECONDS);
         }
+        LOGGER.info("SignalSubscriber will reconnect in {} ms (attempt {}).", delayMs, consecutiveFailures);
+    }
+
+    /**
+     * 指数退避，实际等待时间在 [delay/2, delay] 之间随机，避免多个实例同时重连
+     */
+    private static long nextBackoffMs(int failures) {
+        long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(failures, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
     }
 
     public void stop() {
-        if (knotLinkSubscriber != null) {
-            knotLinkSubscriber.close();
+        TcpClient client;
+        synchronized (this) {
+            stopped = true;
+            state = State.STOPPED;
+            if (reconnectTimer != null) {
+                reconnectTimer.cancel();
+                reconnectTimer = null;
+            }
+            client = knotLinkSubscriber;
+            knotLinkSubscriber = null;
+        }
+        if (client != null) {
+            client.close();
             LOGGER.info("SignalSubscriber stopped.");
         }
     }
-}
\ No newline at end of file
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isConnected() {
+        TcpClient client = knotLinkSubscriber;
+        return client != null && client.isConnected();
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    public long getDisconnectCount() {
+        return disconnectCount.get();
+    }
+
+    /**
+     * 当前连接已保持的时间（毫秒），未连接时为 0
+     */
+    public long getConnectedForMs() {
+        long since = connectedSinceMs;
+        return since == 0L ? 0L : System.currentTimeMillis() - since;
+    }
+
+    public String describeStats() {
+        TcpClient client = knotLinkSubscriber;
+        return String.format("state=%s, reconnects=%d, disconnects=%d, connectedFor=%ds, writes: %s",
+                state, reconnectCount.get(), disconnectCount.get(), getConnectedForMs() / 1000,
+                client != null ? client.describeWriteStats() : "n/a");
+    }
+}
@@ -3,56 +3,188 @@ package com.leafuke.minebackup.knotlink;
 import com.mojang.logging.LogUtils;
 import org.slf4j.Logger;
 
-import java.io.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.net.Socket;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class TcpClient {
+/**
+ * 基于 NIO 的 KnotLink 长连接客户端。
+ * 连接注册在共享的 {@link KnotLinkEventLoop} 上，读取、写出与心跳都在事件循环线程中完成，
+ * 不再为每个连接单独创建读线程和心跳线程。
+ *
+ * 任意线程调用 {@link #sendData} 时只把消息放入无锁的出站队列，从不阻塞；
+ * 事件循环线程统一取出并写出。出站消息没有合并写出：KnotLink 协议没有定义消息分隔符，
+ * 服务端无法从合并后的字节中还原各条消息。分开写出同样不能保证服务端分开读到
+ * （TCP 不保留写入边界），连续发送的消息仍可能在服务端粘连，这是协议本身的限制。
+ */
+public class TcpClient implements KnotLinkEventLoop.Handler {
     private static final Logger LOGGER = LogUtils.getLogger();
-    private Socket socket;
-    private PrintWriter out;
-    private InputStream in;
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // 数据流静默超过该时间后，把解码器中剩余的数据作为一条完整消息交付
+    private static final long FRAME_FLUSH_DELAY_MS = 20L;
+    // 出站队列上限，超过后丢弃新消息而不是阻塞调用方
+    private static final int MAX_QUEUED_MESSAGES = 1024;
+
+    private final KnotLinkEventLoop loop = KnotLinkEventLoop.get();
+    private SocketChannel channel;
+    private SelectionKey key;
+    // 多生产者单消费者出站队列：任意线程写入，事件循环线程取出
+    private final ConcurrentLinkedQueue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // 已从出站队列取出、尚未完全写出的数据，仅在事件循环线程上访问
+    private final ArrayDeque<Outbound> pendingWrites = new ArrayDeque<>();
+    private KnotLinkEventLoop.Cancellable heartbeat;
+    // 分帧解码器与静默刷新定时器，仅在事件循环线程上访问
+    private final KnotLinkFrameDecoder frameDecoder = new KnotLinkFrameDecoder();
+    private final KnotLinkFrameDecoder.FrameListener frameListener = new KnotLinkFrameDecoder.FrameListener() {
+        @Override
+        public void onFrame(String frame) {
+            deliverFrame(frame);
+        }
+
+        @Override
+        public void onBinaryFrame(ByteBuffer body) {
+            deliverBinaryFrame(body);
+        }
+
+        @Override
+        public void onMalformedFrame(String reason) {
+            LOGGER.warn("Dropping malformed binary KnotLink frame: {}", reason);
+        }
+    };
+    private KnotLinkEventLoop.Cancellable frameFlush;
     private final String heartbeatMessage = "heartbeat";
     private final String heartbeatResponse = "heartbeat_response";
-    private boolean running = false;
+    private volatile boolean running = false;
+    // 上一次心跳是否仍未收到响应，仅在事件循环线程上访问
+    private boolean heartbeatOutstanding = false;
+
+    // 写出统计
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong messagesWritten = new AtomicLong();
+    private final AtomicLong writeCalls = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong totalWriteLatencyNanos = new AtomicLong();
+    private final AtomicLong maxWriteLatencyNanos = new AtomicLong();
 
     public TcpClient() {
     }
 
     public boolean connectToServer(String host, int port) {
+        return connectToServer(new KnotLinkTransport.Tcp(host), port);
+    }
+
+    /**
+     * 通过指定的传输方式连接到 KnotLink 端口
+     */
+    public boolean connectToServer(KnotLinkTransport transport, int port) {
+        SocketChannel ch = null;
         try {
-            this.socket = new Socket(host, port);
-            this.out = new PrintWriter(new OutputStreamWriter(this.socket.getOutputStream(), StandardCharsets.UTF_8), true);
-            this.in = this.socket.getInputStream();
-            LOGGER.info("Connected to KnotLink server at {}:{}", host, port);
-            Thread reader = new Thread(this::readData, "minebackup-knotlink-reader");
-            reader.setDaemon(true);
-            reader.start();
+            // 连接阶段保持阻塞，方便调用方直接得到成功与否
+            ch = transport.connect(port);
+            ch.configureBlocking(false);
+            this.channel = ch;
+            this.running = true;
+            SocketChannel registered = ch;
+            loop.execute(() -> {
+                try {
+                    this.key = loop.register(registered, SelectionKey.OP_READ, this);
+                    flushPendingWrites();
+                } catch (IOException e) {
+                    onError(e);
+                }
+            });
+            LOGGER.info("Connected to KnotLink server at {}", transport.describe(port));
             this.startHeartbeat();
             return true;
         } catch (IOException e) {
             LOGGER.error("Failed to connect to KnotLink server: {}", e.getMessage());
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                }
+            }
             return false;
         }
     }
 
     public void sendData(String data) {
-        if (this.out != null) {
-            this.out.print(data); // 使用 print 方法，不会添加换行符
-            this.out.flush(); // 确保数据立即发送
-        } else {
+        if (!this.running || this.channel == null) {
             LOGGER.warn("Socket is not connected.");
+            return;
+        }
+        if (queueDepth.incrementAndGet() > MAX_QUEUED_MESSAGES) {
+            queueDepth.decrementAndGet();
+            droppedMessages.incrementAndGet();
+            LOGGER.warn("KnotLink outbound queue is full, dropping message.");
+            return;
+        }
+        // 不添加换行符，KnotLink 服务端按原始字节读取
+        outbound.offer(new Outbound(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)), System.nanoTime()));
+        // 已经有一次排空任务在等待时不再重复提交
+        if (drainScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                try {
+                    flushPendingWrites();
+                } catch (IOException e) {
+                    onError(e);
+                }
+            });
         }
     }
 
+    /**
+     * 尽量写出所有待发送数据；写不完时关注 OP_WRITE，等可写后继续
+     */
+    private void flushPendingWrites() throws IOException {
+        // 先清除标记：无论下面从哪里返回，之后的 sendData 都能再次提交排空任务
+        drainScheduled.set(false);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        Outbound message;
+        while ((message = outbound.poll()) != null) {
+            pendingWrites.add(message);
+        }
+        while ((message = pendingWrites.peek()) != null) {
+            channel.write(message.buffer);
+            writeCalls.incrementAndGet();
+            if (message.buffer.hasRemaining()) {
+                // 发送缓冲区已满，等可写后继续
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            pendingWrites.poll();
+            onWritten(message);
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void onWritten(Outbound message) {
+        queueDepth.decrementAndGet();
+        messagesWritten.incrementAndGet();
+        long latency = System.nanoTime() - message.enqueuedAtNanos;
+        totalWriteLatencyNanos.addAndGet(latency);
+        maxWriteLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
     private void startHeartbeat() {
-        this.running = true;
-        this.scheduler.scheduleAtFixedRate(() -> {
+        this.heartbeat = loop.scheduleAtFixedRate(() -> {
             if (this.running) {
+                if (heartbeatOutstanding) {
+                    // 一个心跳周期内没有收到响应
+                    notifyHeartbeat(false);
+                }
+                heartbeatOutstanding = true;
                 this.sendData(this.heartbeatMessage);
             }
         }, 1L, 3L, TimeUnit.MINUTES);
@@ -60,33 +192,96 @@ public class TcpClient {
 
     private void stopHeartbeat() {
         this.running = false;
-        this.scheduler.shutdown();
+        if (this.heartbeat != null) {
+            this.heartbeat.cancel();
+            this.heartbeat = null;
+        }
     }
 
-    private void readData() {
-        LOGGER.debug("Start reading data from KnotLink server...");
+    @Override
+    public void onReadable(SelectionKey key, ByteBuffer readBuffer) throws IOException {
+        int bytesRead = channel.read(readBuffer); // 读取数据
+        if (bytesRead == -1) {
+            disconnect(null);
+            return;
+        }
+        if (bytesRead == 0) {
+            return;
+        }
+        readBuffer.flip();
+        frameDecoder.decode(readBuffer, frameListener);
+        if (frameFlush != null) {
+            frameFlush.cancel();
+            frameFlush = null;
+        }
+        if (frameDecoder.hasPending()) {
+            frameFlush = loop.schedule(() -> {
+                frameFlush = null;
+                frameDecoder.flush(frameListener);
+            }, FRAME_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 交付一条完整的逻辑消息
+     */
+    private void deliverFrame(String receivedData) {
+        LOGGER.debug("Received frame: {}", receivedData);
+        if (receivedData.equals(heartbeatResponse)) {
+            heartbeatOutstanding = false;
+            notifyHeartbeat(true);
+            return; // 如果是心跳响应，不交给数据监听器
+        }
+        // Handle received data
+        if (dataReceivedListener != null) {
+            dataReceivedListener.onDataReceived(receivedData);
+        }
+    }
+
+    /**
+     * 交付一条二进制事件帧（bin1）：直接解码为字段表，不再经过文本拆分
+     */
+    private void deliverBinaryFrame(ByteBuffer body) {
+        Map<String, String> event;
         try {
-            byte[] buffer = new byte[1024];
-            while (true) {
-                int bytesRead = in.read(buffer); // 读取数据
-                if (bytesRead == -1) {
-                    break; // 如果没有数据可读，退出循环
-                }
-                String receivedData = new String(buffer, 0, bytesRead, StandardCharsets.UTF_8);
-                LOGGER.debug("Received raw data: {}", receivedData);
-                if (receivedData.trim().equals(heartbeatResponse)) {
-                    continue; // 如果是心跳响应，跳过处理
-                }
-                // Handle received data
-                if (dataReceivedListener != null) {
-                    dataReceivedListener.onDataReceived(receivedData);
-                }
-            }
-        } catch (IOException e) {
-            LOGGER.warn("KnotLink socket error: {}", e.getMessage());
-        } finally {
-            stopHeartbeat();
+            event = KnotLinkBinaryCodec.decodeEvent(body);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Dropping malformed binary KnotLink event: {}", e.getMessage());
+            return;
+        }
+        LOGGER.debug("Received binary event: {}", event);
+        EventReceivedListener listener = eventReceivedListener;
+        if (listener != null) {
+            listener.onEventReceived(event);
+        } else if (dataReceivedListener != null) {
+            dataReceivedListener.onDataReceived(KnotLinkBinaryCodec.toText(event));
+        }
+    }
+
+    @Override
+    public void onWritable(SelectionKey key) throws IOException {
+        flushPendingWrites();
+    }
+
+    @Override
+    public void onError(IOException e) {
+        disconnect(e);
+    }
+
+    private void disconnect(IOException cause) {
+        if (cause != null) {
+            LOGGER.warn("KnotLink socket error: {}", cause.getMessage());
+        }
+        boolean wasRunning = this.running;
+        // 断开前把已收到但尚未成帧的数据交付出去
+        frameDecoder.flush(frameListener);
+        closeChannel();
+        if (wasRunning) {
             LOGGER.info("KnotLink server disconnected.");
+            Runnable listener = disconnectListener;
+            if (listener != null) {
+                listener.run();
+            }
         }
     }
 
@@ -101,14 +296,114 @@ public class TcpClient {
         LOGGER.debug("DataReceivedListener set successfully.");
     }
 
+    public interface EventReceivedListener {
+        /**
+         * @param event 已解码的事件字段，事件类型位于 "event" 键下
+         */
+        void onEventReceived(Map<String, String> event);
+    }
+
+    private volatile EventReceivedListener eventReceivedListener;
+
+    /**
+     * 设置二进制事件的监听器；未设置时二进制事件会还原成文本交给 {@link DataReceivedListener}
+     */
+    public void setEventReceivedListener(EventReceivedListener listener) {
+        this.eventReceivedListener = listener;
+    }
+
+    public interface HeartbeatListener {
+        /**
+         * @param answered true 表示收到了 heartbeat_response，false 表示上一次心跳超时未响应
+         */
+        void onHeartbeat(boolean answered);
+    }
+
+    private volatile HeartbeatListener heartbeatListener;
+
+    public void setHeartbeatListener(HeartbeatListener listener) {
+        this.heartbeatListener = listener;
+    }
+
+    private void notifyHeartbeat(boolean answered) {
+        HeartbeatListener listener = heartbeatListener;
+        if (listener != null) {
+            listener.onHeartbeat(answered);
+        }
+    }
+
+    private volatile Runnable disconnectListener;
+
+    /**
+     * 设置连接被动断开（对端关闭或出错）时的回调；主动调用 {@link #close()} 不会触发
+     */
+    public void setDisconnectListener(Runnable listener) {
+        this.disconnectListener = listener;
+    }
+
+    public boolean isConnected() {
+        return this.running && this.channel != null && this.channel.isOpen();
+    }
+
     public void close() {
         this.stopHeartbeat();
+        loop.execute(this::closeChannel);
+    }
+
+    private void closeChannel() {
+        this.stopHeartbeat();
+        pendingWrites.clear();
+        outbound.clear();
+        queueDepth.set(0);
+        if (frameFlush != null) {
+            frameFlush.cancel();
+            frameFlush = null;
+        }
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
         try {
-            if (this.socket != null) {
-                this.socket.close();
+            if (this.channel != null) {
+                this.channel.close();
             }
         } catch (IOException e) {
             LOGGER.warn("Error closing socket: {}", e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 尚未写出的消息数
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * 从调用 sendData 到完全写出的平均耗时（微秒）
+     */
+    public long getAverageWriteLatencyMicros() {
+        long written = messagesWritten.get();
+        return written == 0 ? 0 : totalWriteLatencyNanos.get() / written / 1000;
+    }
+
+    public long getMaxWriteLatencyMicros() {
+        return maxWriteLatencyNanos.get() / 1000;
+    }
+
+    public String describeWriteStats() {
+        return String.format("queued=%d, written=%d, writeCalls=%d, dropped=%d, avgLatency=%dus, maxLatency=%dus",
+                queueDepth.get(), messagesWritten.get(), writeCalls.get(), droppedMessages.get(),
+                getAverageWriteLatencyMicros(), getMaxWriteLatencyMicros());
+    }
+
+    private static final class Outbound {
+        private final ByteBuffer buffer;
+        private final long enqueuedAtNanos;
+
+        private Outbound(ByteBuffer buffer, long enqueuedAtNanos) {
+            this.buffer = buffer;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.leafuke.minebackup.mixin;
+
+import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Invoker;
+
+/**
+ * 访问 ChunkMap 中逐个区块保存所需的方法，供热备份增量保存使用
+ */
+@Mixin(ChunkMap.class)
+public interface ChunkMapAccessor {
+    @Invoker("getChunks")
+    Iterable<ChunkHolder> minebackup$getChunks();
+
+    /**
+     * 保存单个区块：在服务器线程上复制区块数据，序列化与写入交给后台线程和区域文件 IO 线程
+     * @return 区块有未保存的修改并已提交写入时返回 true
+     */
+    @Invoker("save")
+    boolean minebackup$save(ChunkAccess chunk);
+}
@@ -0,0 +1,29 @@
+package com.leafuke.minebackup.mixin;
+
+import com.leafuke.minebackup.DirtyRegionTracker;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.storage.RegionFileStorage;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.nio.file.Path;
+
+/**
+ * 记录写入过的区域文件（区块、实体、兴趣点），在 IO 线程上调用
+ */
+@Mixin(RegionFileStorage.class)
+public class RegionFileStorageMixin {
+    @Shadow
+    @Final
+    private Path folder;
+
+    @Inject(method = "write", at = @At("RETURN"))
+    private void minebackup$recordWrite(ChunkPos pos, CompoundTag tag, CallbackInfo ci) {
+        DirtyRegionTracker.recordWrite(folder, pos.getRegionX(), pos.getRegionZ());
+    }
+}
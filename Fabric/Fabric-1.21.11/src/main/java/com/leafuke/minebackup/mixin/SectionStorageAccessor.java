@@ -0,0 +1,15 @@
+package com.leafuke.minebackup.mixin;
+
+import net.minecraft.world.level.chunk.storage.SectionStorage;
+import net.minecraft.world.level.chunk.storage.SimpleRegionStorage;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * 兴趣点（poi）等分段存储使用的区域文件存储
+ */
+@Mixin(SectionStorage.class)
+public interface SectionStorageAccessor {
+    @Accessor("simpleRegionStorage")
+    SimpleRegionStorage minebackup$getStorage();
+}
@@ -0,0 +1,15 @@
+package com.leafuke.minebackup.mixin;
+
+import net.minecraft.world.level.chunk.storage.IOWorker;
+import net.minecraft.world.level.chunk.storage.SimpleRegionStorage;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * 区域文件存储（区块、实体、兴趣点）各自的 IO 线程，用于等待已提交的写入全部完成
+ */
+@Mixin(SimpleRegionStorage.class)
+public interface SimpleRegionStorageAccessor {
+    @Accessor("worker")
+    IOWorker minebackup$getWorker();
+}
@@ -0,0 +1,198 @@
+package com.leafuke.minebackup.restore;
+
+import com.leafuke.minebackup.MineBackup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 热还原交接
+ * 世界真正可以安全替换时（被踢出的玩家连接全部关闭、最终保存完成、服务器停止并释放 session.lock）
+ * 才通知主程序 WORLD_SAVE_AND_EXIT_COMPLETE，并记录每个阶段的耗时。
+ * 各阶段由服务器生命周期与断开连接事件推进，不再固定等待。
+ */
+public final class HotRestoreHandoff {
+    // 服务器迟迟没有停止时的兜底时间，超时后仍然通知主程序，避免还原流程永远挂起
+    private static final long TIMEOUT_MS = 60_000L;
+    // 服务器停止后等待会话锁释放的最长时间
+    private static final long LOCK_WAIT_MS = 5_000L;
+    private static final long LOCK_POLL_MS = 20L;
+    // 专用服务器停止后 JVM 随即退出，等待通知送达的最长时间
+    private static final long ACK_WAIT_MS = 3_000L;
+
+    private static HotRestoreHandoff current;
+
+    private final Path sessionLock;
+    private final Set<UUID> pendingPlayers;
+    private final Supplier<CompletableFuture<String>> notifier;
+    private final long beganAt = System.nanoTime();
+    // 各阶段完成的时间点（nanoTime），0 表示尚未完成
+    private long savedAt;
+    private long disconnectedAt;
+    private long stopRequestedAt;
+    private long stoppedAt;
+    private long lockReleasedAt;
+    private boolean saveComplete;
+    private boolean done;
+
+    private HotRestoreHandoff(Path sessionLock, Collection<UUID> players, Supplier<CompletableFuture<String>> notifier) {
+        this.sessionLock = sessionLock;
+        this.pendingPlayers = new HashSet<>(players);
+        this.notifier = notifier;
+    }
+
+    /**
+     * 开始一次交接（在保存世界、踢出玩家之前调用）
+     * @param sessionLock 世界存档的 session.lock
+     * @param players 即将被踢出的玩家
+     * @param notifier 世界安全后发送 WORLD_SAVE_AND_EXIT_COMPLETE
+     */
+    public static synchronized void begin(Path sessionLock, Collection<UUID> players, Supplier<CompletableFuture<String>> notifier) {
+        if (current != null && !current.done) {
+            MineBackup.LOGGER.warn("[MineBackup] 上一次热还原交接尚未完成，已被新的请求替换");
+        }
+        HotRestoreHandoff handoff = new HotRestoreHandoff(sessionLock, players, notifier);
+        current = handoff;
+        CompletableFuture.delayedExecutor(TIMEOUT_MS, TimeUnit.MILLISECONDS).execute(() -> timeout(handoff));
+    }
+
+    /**
+     * 最终保存已完成
+     */
+    public static synchronized void saved(boolean complete) {
+        if (current == null || current.done) return;
+        current.savedAt = System.nanoTime();
+        current.saveComplete = complete;
+        if (current.pendingPlayers.isEmpty()) {
+            current.disconnectedAt = current.savedAt;
+        }
+    }
+
+    /**
+     * 玩家连接已关闭（服务器线程上的断开连接事件）
+     */
+    public static synchronized void playerDisconnected(UUID player) {
+        if (current == null || current.done || current.disconnectedAt != 0L) return;
+        if (current.pendingPlayers.remove(player) && current.pendingPlayers.isEmpty()) {
+            current.disconnectedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * 服务器开始停止（专用服务器主动停止，或单人游戏客户端断开后关闭集成服务器）
+     */
+    public static synchronized void serverStopping() {
+        if (current == null || current.done || current.stopRequestedAt != 0L) return;
+        current.stopRequestedAt = System.nanoTime();
+    }
+
+    /**
+     * 服务器已完全停止：确认会话锁已释放后通知主程序
+     */
+    public static void serverStopped() {
+        HotRestoreHandoff handoff;
+        synchronized (HotRestoreHandoff.class) {
+            handoff = current;
+            if (handoff == null || handoff.done) return;
+            handoff.stoppedAt = System.nanoTime();
+            if (handoff.stopRequestedAt == 0L) {
+                handoff.stopRequestedAt = handoff.stoppedAt;
+            }
+            if (handoff.disconnectedAt == 0L) {
+                // 停止过程会关闭所有剩余连接
+                handoff.disconnectedAt = handoff.stoppedAt;
+            }
+        }
+        boolean released = handoff.awaitLockRelease();
+        CompletableFuture<String> ack;
+        synchronized (HotRestoreHandoff.class) {
+            if (handoff.done) return;
+            handoff.lockReleasedAt = System.nanoTime();
+            if (!released) {
+                MineBackup.LOGGER.warn("[MineBackup] 等待 {}ms 后会话锁仍未释放，继续通知主程序", LOCK_WAIT_MS);
+            }
+            ack = handoff.complete("完成");
+        }
+        try {
+            ack.get(ACK_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            MineBackup.LOGGER.warn("[MineBackup] 未收到主程序对 WORLD_SAVE_AND_EXIT_COMPLETE 的响应: {}", e.toString());
+        }
+    }
+
+    private static synchronized void timeout(HotRestoreHandoff handoff) {
+        if (handoff.done || handoff != current) return;
+        MineBackup.LOGGER.warn("[MineBackup] 热还原交接超过 {}ms 仍未完成（尚有 {} 名玩家未断开，服务器{}停止），直接通知主程序",
+                TIMEOUT_MS, handoff.pendingPlayers.size(), handoff.stoppedAt != 0L ? "已" : "未");
+        handoff.complete("超时");
+    }
+
+    // 调用方持有类锁
+    private CompletableFuture<String> complete(String outcome) {
+        done = true;
+        current = null;
+        CompletableFuture<String> ack = notifier.get();
+        MineBackup.LOGGER.info("[MineBackup] 已发送 WORLD_SAVE_AND_EXIT_COMPLETE（{}，保存{}）：保存 {}ms，玩家断开 {}ms，服务器停止 {}ms，会话锁释放 {}ms，总计 {}ms",
+                outcome, saveComplete ? "完整" : "可能不完整",
+                phase(beganAt, savedAt), phase(savedAt, disconnectedAt), phase(stopRequestedAt, stoppedAt),
+                phase(stoppedAt, lockReleasedAt), phase(beganAt, System.nanoTime()));
+        return ack;
+    }
+
+    private static String phase(long from, long to) {
+        if (from == 0L || to == 0L) return "-";
+        return String.valueOf(Math.max(0L, TimeUnit.NANOSECONDS.toMillis(to - from)));
+    }
+
+    /**
+     * 尝试获取 session.lock 的文件锁；能获取说明服务器已经关闭了存档目录
+     */
+    private boolean awaitLockRelease() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOCK_WAIT_MS);
+        while (true) {
+            if (isLockReleased()) return true;
+            if (System.nanoTime() - deadline >= 0L) return false;
+            try {
+                Thread.sleep(LOCK_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private boolean isLockReleased() {
+        if (sessionLock == null || !Files.exists(sessionLock)) return true;
+        try (FileChannel channel = FileChannel.open(sessionLock, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) return false;
+            lock.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            // 本 JVM 内仍持有该锁
+            return false;
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            MineBackup.LOGGER.debug("[MineBackup] 检查会话锁失败: {}", e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.leafuke.minebackup.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内的 KnotLink 替身服务器，用于在没有桌面端主程序和 KnotLink 服务端的情况下
+ * 对模组的 IPC 链路做功能验证与压测。不会打包进模组。
+ *
+ * 端口与真实服务端一致：6372 订阅、6376 查询、6378 发送；也可以改为监听某个目录下的
+ * knotlink-&lt;端口&gt;.sock（对应模组配置 knotLinkSocketDir）。
+ * 查询应答由 {@link QueryScript} 决定，支持 mux / batch 分帧，支持整体延迟注入、
+ * 事件突发注入以及“回复后立即断开”来模拟不支持长连接的服务端。
+ * 模组在 HANDSHAKE_RESPONSE 中接受 bin1 后，之后的事件与查询响应改用二进制帧发送；
+ * 接受 deflate 后，超过阈值的列表响应改为压缩发送。
+ */
+public final class KnotLinkStandInServer implements AutoCloseable {
+    public static final int SUBSCRIBER_PORT = 6372;
+    public static final int QUERIER_PORT = 6376;
+    public static final int SENDER_PORT = 6378;
+
+    // 查询包以 "appID-socketID&*&" 开头；mux 连接上多个请求可能粘在一起，按前缀切分
+    private static final Pattern PACKET_PREFIX = Pattern.compile("[0-9A-Za-z_]+-[0-9A-Za-z_]+&\\*&");
+
+    private final QueryScript script;
+    private final List<ServerSocketChannel> listeners = new ArrayList<>();
+    private final List<Thread> acceptThreads = new ArrayList<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+
+    private volatile long latencyMs = 0L;
+    private volatile long latencyJitterMs = 0L;
+    private volatile boolean closeAfterReply = false;
+    // 模组在 HANDSHAKE_RESPONSE 中接受的特性
+    private volatile Set<String> acceptedFeatures = Set.of();
+
+    // 统计信息
+    private final AtomicLong queriesServed = new AtomicLong();
+    private final AtomicLong eventsSent = new AtomicLong();
+    private final AtomicLong signalsReceived = new AtomicLong();
+    private final AtomicLong replyBytes = new AtomicLong();
+
+    public KnotLinkStandInServer(QueryScript script) {
+        this.script = script;
+    }
+
+    public KnotLinkStandInServer() {
+        this(QueryScript.defaults());
+    }
+
+    public QueryScript script() {
+        return script;
+    }
+
+    /**
+     * 在 127.0.0.1 的标准端口上启动
+     */
+    public KnotLinkStandInServer start() throws IOException {
+        return start(port -> new InetSocketAddress("127.0.0.1", port), null);
+    }
+
+    /**
+     * 在指定目录下的 Unix 域套接字上启动
+     */
+    public KnotLinkStandInServer start(Path socketDir) throws IOException {
+        Files.createDirectories(socketDir);
+        return start(port -> {
+            Path file = socketDir.resolve("knotlink-" + port + ".sock");
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            return UnixDomainSocketAddress.of(file);
+        }, StandardProtocolFamily.UNIX);
+    }
+
+    private interface AddressFactory {
+        SocketAddress forPort(int port);
+    }
+
+    private KnotLinkStandInServer start(AddressFactory addresses, StandardProtocolFamily family) throws IOException {
+        running = true;
+        try {
+            listen(addresses.forPort(SUBSCRIBER_PORT), family, this::serveSubscriber);
+            listen(addresses.forPort(QUERIER_PORT), family, this::serveQueries);
+            listen(addresses.forPort(SENDER_PORT), family, this::serveSender);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        return this;
+    }
+
+    private interface ConnectionHandler {
+        void serve(SocketChannel channel) throws IOException;
+    }
+
+    private void listen(SocketAddress address, StandardProtocolFamily family, ConnectionHandler handler) throws IOException {
+        ServerSocketChannel server = family == null ? ServerSocketChannel.open() : ServerSocketChannel.open(family);
+        server.bind(address);
+        listeners.add(server);
+        acceptThreads.add(Thread.ofVirtual().name("standin-accept-" + address).start(() -> {
+            while (running) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (IOException e) {
+                    return; // 监听已关闭
+                }
+                connections.add(channel);
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        handler.serve(channel);
+                    } catch (IOException ignored) {
+                        // 客户端断开
+                    } finally {
+                        connections.remove(channel);
+                        closeQuietly(channel);
+                    }
+                });
+            }
+        }));
+    }
+
+    // ---- 订阅端口 ----
+
+    private void serveSubscriber(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        if (channel.read(buffer) <= 0) {
+            return;
+        }
+        buffer.flip();
+        Subscriber subscriber = new Subscriber(StandardCharsets.UTF_8.decode(buffer).toString().trim(), channel);
+        subscribers.add(subscriber);
+        try {
+            while (running) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    return;
+                }
+                buffer.flip();
+                if (StandardCharsets.UTF_8.decode(buffer).toString().contains("heartbeat")) {
+                    subscriber.send("heartbeat_response".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } finally {
+            subscribers.remove(subscriber);
+        }
+    }
+
+    /**
+     * 向所有订阅者广播一条事件，例如 "event=pre_hot_backup;world=world"
+     */
+    public void broadcast(String event) {
+        byte[] data = isBinaryAccepted() && event.startsWith("event=")
+                ? StandInBinaryEncoder.event(event)
+                : event.getBytes(StandardCharsets.UTF_8);
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.send(data);
+                eventsSent.incrementAndGet();
+            } catch (IOException e) {
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+
+    /**
+     * 事件突发：连续广播 count 条事件，每条之间间隔 intervalMicros 微秒（0 表示尽快发送）。
+     * 事件内容中的 {i} 会被替换为序号。
+     */
+    public void burst(String eventTemplate, int count, long intervalMicros) {
+        for (int i = 0; i < count; i++) {
+            broadcast(eventTemplate.replace("{i}", Integer.toString(i)));
+            if (intervalMicros > 0) {
+                sleepMicros(intervalMicros);
+            }
+        }
+    }
+
+    /**
+     * 模拟主程序启动后的握手广播
+     * @param features 主程序声明的特性，例如 "mux,batch,bin1"；为 null 时不携带 features 字段
+     */
+    public void sendHandshake(String version, String features) {
+        String event = "event=handshake;version=" + version + ";min_mod_version=1.0.0";
+        if (features != null) {
+            event += ";features=" + features;
+        }
+        broadcast(event);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * 等待至少 count 个订阅者连上（用于测试开始前同步）
+     */
+    public boolean awaitSubscribers(int count, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (subscribers.size() < count) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    // ---- 查询端口 ----
+
+    private void serveQueries(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (running) {
+            int bytesRead = channel.read(buffer);
+            if (bytesRead < 0) {
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                // 请求超过缓冲区大小，扩容后继续读
+                ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                buffer = grown.put(buffer);
+                continue;
+            }
+            buffer.flip();
+            String chunk = StandardCharsets.UTF_8.decode(buffer).toString();
+            buffer.clear();
+            for (String packet : splitPackets(chunk)) {
+                handleQuery(channel, packet);
+            }
+            if (closeAfterReply) {
+                return;
+            }
+        }
+    }
+
+    private static List<String> splitPackets(String chunk) {
+        List<String> packets = new ArrayList<>();
+        Matcher matcher = PACKET_PREFIX.matcher(chunk);
+        int start = -1;
+        while (matcher.find()) {
+            if (start >= 0) {
+                packets.add(chunk.substring(start, matcher.start()));
+            }
+            start = matcher.start();
+        }
+        if (start >= 0) {
+            packets.add(chunk.substring(start));
+        }
+        return packets;
+    }
+
+    private void handleQuery(SocketChannel channel, String packet) throws IOException {
+        int separator = packet.indexOf("&*&");
+        String question = packet.substring(separator + 3);
+        if (question.startsWith("MUX ")) {
+            // 多路复用请求：各自独立延迟后回复，允许乱序
+            int space = question.indexOf(' ', 4);
+            String id = question.substring(4, space);
+            String inner = question.substring(space + 1);
+            Thread.ofVirtual().start(() -> {
+                try {
+                    write(channel, frame(id, respond(inner)));
+                } catch (IOException ignored) {
+                }
+            });
+            return;
+        }
+        write(channel, respond(question));
+    }
+
+    private byte[] respond(String question) {
+        if (question.startsWith("BATCH ")) {
+            String[] lines = question.split("\n");
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            for (int i = 1; i < lines.length; i++) {
+                reply.writeBytes(frame(Integer.toString(i - 1), encode(answer(lines[i]))));
+            }
+            sleepMillis(injectedLatency());
+            return reply.toByteArray();
+        }
+        sleepMillis(injectedLatency() + script.delayFor(question));
+        byte[] reply = encode(answer(question));
+        if (question.startsWith("HANDSHAKE_RESPONSE")) {
+            // 握手响应本身仍用文本回复，之后才切换编码
+            int features = question.indexOf("features=");
+            acceptedFeatures = features < 0 ? Set.of() : Set.of(question.substring(features + 9).trim().split(","));
+        }
+        return reply;
+    }
+
+    private byte[] encode(String reply) {
+        byte[] encoded;
+        if (acceptedFeatures.contains(StandInBinaryEncoder.DEFLATE_FEATURE) && reply.startsWith("OK:")
+                && reply.length() > StandInBinaryEncoder.COMPRESSION_THRESHOLD) {
+            encoded = StandInBinaryEncoder.deflatedReply(reply);
+        } else if (isBinaryAccepted()) {
+            encoded = StandInBinaryEncoder.reply(reply);
+        } else {
+            encoded = reply.getBytes(StandardCharsets.UTF_8);
+        }
+        replyBytes.addAndGet(encoded.length);
+        return encoded;
+    }
+
+    private String answer(String question) {
+        queriesServed.incrementAndGet();
+        return script.answer(question);
+    }
+
+    private static byte[] frame(String id, byte[] payload) {
+        byte[] header = ("#" + id + ":" + payload.length + ":").getBytes(StandardCharsets.UTF_8);
+        byte[] framed = new byte[header.length + payload.length];
+        System.arraycopy(header, 0, framed, 0, header.length);
+        System.arraycopy(payload, 0, framed, header.length, payload.length);
+        return framed;
+    }
+
+    // ---- 发送端口 ----
+
+    /**
+     * 发送端口收到 "appID-signalID&*&data" 后，把 data 转发给订阅了同一 key 的订阅者
+     */
+    private void serveSender(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (running) {
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                return;
+            }
+            buffer.flip();
+            for (String packet : splitPackets(StandardCharsets.UTF_8.decode(buffer).toString())) {
+                signalsReceived.incrementAndGet();
+                int separator = packet.indexOf("&*&");
+                String key = packet.substring(0, separator);
+                String data = packet.substring(separator + 3);
+                for (Subscriber subscriber : subscribers) {
+                    if (subscriber.key.equals(key)) {
+                        try {
+                            subscriber.send(data.getBytes(StandardCharsets.UTF_8));
+                            eventsSent.incrementAndGet();
+                        } catch (IOException e) {
+                            subscribers.remove(subscriber);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // ---- 延迟注入与配置 ----
+
+    /**
+     * 每个查询的基础延迟与随机抖动（毫秒）
+     */
+    public KnotLinkStandInServer setLatency(long baseMs, long jitterMs) {
+        this.latencyMs = baseMs;
+        this.latencyJitterMs = jitterMs;
+        return this;
+    }
+
+    /**
+     * 每次回复后关闭查询连接，模拟不支持长连接的服务端
+     */
+    public KnotLinkStandInServer setCloseAfterReply(boolean closeAfterReply) {
+        this.closeAfterReply = closeAfterReply;
+        return this;
+    }
+
+    private long injectedLatency() {
+        long jitter = latencyJitterMs;
+        return latencyMs + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+    }
+
+    public boolean isBinaryAccepted() {
+        return acceptedFeatures.contains(StandInBinaryEncoder.FEATURE);
+    }
+
+    public Set<String> getAcceptedFeatures() {
+        return acceptedFeatures;
+    }
+
+    /**
+     * 已发送的查询响应字节数（编码或压缩之后、mux/batch 分帧之前）
+     */
+    public long getReplyBytes() {
+        return replyBytes.get();
+    }
+
+    public long getQueriesServed() {
+        return queriesServed.get();
+    }
+
+    public long getEventsSent() {
+        return eventsSent.get();
+    }
+
+    public long getSignalsReceived() {
+        return signalsReceived.get();
+    }
+
+    public String describeStats() {
+        return String.format("subscribers=%d, queries=%d, events=%d, signals=%d, replyBytes=%d, features=%s",
+                subscribers.size(), queriesServed.get(), eventsSent.get(), signalsReceived.get(), replyBytes.get(),
+                acceptedFeatures.isEmpty() ? "-" : String.join(",", acceptedFeatures));
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (ServerSocketChannel listener : listeners) {
+            closeQuietly(listener);
+        }
+        listeners.clear();
+        // 阻塞在 accept 中的监听要等线程退出后才真正释放端口，等待后才能在同一端口上重新启动
+        for (Thread thread : acceptThreads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        acceptThreads.clear();
+        for (SocketChannel channel : connections) {
+            closeQuietly(channel);
+        }
+        subscribers.clear();
+    }
+
+    private static void write(SocketChannel channel, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        synchronized (channel) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static void sleepMillis(long ms) {
+        if (ms > 0) {
+            sleepMicros(ms * 1000);
+        }
+    }
+
+    private static void sleepMicros(long micros) {
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class Subscriber {
+        private final String key;
+        private final SocketChannel channel;
+
+        private Subscriber(String key, SocketChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        private void send(byte[] data) throws IOException {
+            write(channel, data);
+        }
+    }
+
+    /**
+     * 独立运行：java ... KnotLinkStandInServer [socketDir] [latencyMs]
+     * 在控制台输入一行事件即广播出去；输入 "burst &lt;n&gt; &lt;event&gt;" 连续广播 n 条。
+     */
+    public static void main(String[] args) throws Exception {
+        KnotLinkStandInServer server = new KnotLinkStandInServer();
+        if (args.length > 1) {
+            server.setLatency(Long.parseLong(args[1]), 0);
+        }
+        if (args.length > 0 && !args[0].isEmpty() && !args[0].equals("-")) {
+            server.start(Path.of(args[0]));
+        } else {
+            server.start();
+        }
+        System.out.println("KnotLink stand-in server started. Type an event line to broadcast it.");
+        try (java.util.Scanner scanner = new java.util.Scanner(System.in, StandardCharsets.UTF_8)) {
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine().trim();
+                if (line.equals("stats")) {
+                    System.out.println(server.describeStats());
+                } else if (line.startsWith("burst ")) {
+                    String[] parts = line.split(" ", 3);
+                    server.burst(parts[2], Integer.parseInt(parts[1]), 0);
+                } else if (!line.isEmpty()) {
+                    server.broadcast(line);
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
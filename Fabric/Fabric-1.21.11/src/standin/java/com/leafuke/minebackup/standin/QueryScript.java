@@ -0,0 +1,135 @@
+package com.leafuke.minebackup.standin;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 替身服务器的查询应答脚本。
+ * 按命令名（查询内容的第一个单词）匹配应答；可以为单个命令注入额外延迟或固定的错误。
+ */
+public final class QueryScript {
+    private final Map<String, Function<String, String>> replies = new ConcurrentHashMap<>();
+    private final Map<String, Long> delaysMs = new ConcurrentHashMap<>();
+    private volatile Function<String, String> fallback = question -> "ERROR:UNKNOWN_COMMAND";
+
+    /**
+     * 默认脚本：常用的 LIST_* 命令返回少量条目，BACKUP 等命令直接返回 OK
+     */
+    public static QueryScript defaults() {
+        QueryScript script = new QueryScript();
+        script.reply("LIST_CONFIGS", q -> "OK:1,Default;2,Secondary");
+        script.reply("LIST_WORLDS", q -> "OK:0,world;1,world_nether");
+        script.listReply("LIST_BACKUPS", 20, 32);
+        script.reply("BACKUP", q -> "OK:BACKUP_STARTED");
+        script.reply("BACKUP_CURRENT", q -> "OK:BACKUP_STARTED");
+        script.reply("RESTORE", q -> "OK:RESTORE_STARTED");
+        script.reply("AUTO_BACKUP", q -> "OK:AUTO_BACKUP_STARTED");
+        script.reply("STOP_AUTO_BACKUP", q -> "OK:AUTO_BACKUP_STOPPED");
+        script.reply("GET_CONFIG", q -> "OK:");
+        script.reply("HANDSHAKE_RESPONSE", q -> "OK:");
+        script.reply("WORLD_SAVED", q -> "OK:");
+        script.reply("WORLD_SAVE_AND_EXIT_COMPLETE", q -> "OK:");
+        script.reply("REJOIN_RESULT", q -> "OK:");
+        return script;
+    }
+
+    public QueryScript reply(String command, Function<String, String> reply) {
+        replies.put(command, reply);
+        return this;
+    }
+
+    /**
+     * 固定应答
+     */
+    public QueryScript reply(String command, String reply) {
+        return reply(command, q -> reply);
+    }
+
+    /**
+     * "OK:a;b;c" 形式的列表应答，条目数与单条长度可调，用于测试大响应
+     */
+    public QueryScript listReply(String command, int entries, int entryLength) {
+        String payload = listPayload(entries, entryLength);
+        return reply(command, q -> payload);
+    }
+
+    /**
+     * 与主程序真实命名方式相同的备份列表应答，例如 [Full][2025-08-11_12-33-00]world [注释].7z，
+     * 用于衡量压缩效果（重复前缀占多数）
+     */
+    public QueryScript backupListReply(String command, int entries) {
+        String payload = backupListPayload(entries);
+        return reply(command, q -> payload);
+    }
+
+    /**
+     * 让命令返回固定错误，例如 fail("BACKUP", "BACKUP_FAILED")
+     */
+    public QueryScript fail(String command, String error) {
+        return reply(command, "ERROR:" + error);
+    }
+
+    /**
+     * 为单个命令注入额外延迟（叠加在服务器整体延迟之上）
+     */
+    public QueryScript delay(String command, long delayMs) {
+        delaysMs.put(command, delayMs);
+        return this;
+    }
+
+    public QueryScript fallback(Function<String, String> reply) {
+        this.fallback = reply;
+        return this;
+    }
+
+    String answer(String question) {
+        return replies.getOrDefault(commandOf(question), fallback).apply(question);
+    }
+
+    long delayFor(String question) {
+        return delaysMs.getOrDefault(commandOf(question), 0L);
+    }
+
+    static String commandOf(String question) {
+        int space = question.indexOf(' ');
+        return space < 0 ? question : question.substring(0, space);
+    }
+
+    public static String backupListPayload(int entries) {
+        StringBuilder builder = new StringBuilder(3 + entries * 48).append("OK:");
+        LocalDateTime time = LocalDateTime.of(2025, 1, 1, 0, 0);
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+        String[] comments = {"", " [auto]", " [before update]", " [Preparing for Ender Dragon!]"};
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                builder.append(';');
+            }
+            // 每 10 个备份中 1 个完整备份，其余为增量备份；间隔 17 分钟左右
+            time = time.plusMinutes(17).plusSeconds(i % 60);
+            builder.append(i % 10 == 0 ? "[Full][" : "[Smart][")
+                    .append(time.format(format))
+                    .append("]world")
+                    .append(comments[i % comments.length])
+                    .append(".7z");
+        }
+        return builder.toString();
+    }
+
+    public static String listPayload(int entries, int entryLength) {
+        StringBuilder builder = new StringBuilder(3 + entries * (entryLength + 1)).append("OK:");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                builder.append(';');
+            }
+            String name = "backup_" + i + "_";
+            builder.append(name);
+            for (int j = name.length(); j < entryLength; j++) {
+                builder.append('x');
+            }
+        }
+        return builder.toString();
+    }
+}
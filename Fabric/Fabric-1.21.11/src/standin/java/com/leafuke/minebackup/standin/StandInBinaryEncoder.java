@@ -0,0 +1,143 @@
+package com.leafuke.minebackup.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * 替身服务器一侧的 bin1 / deflate 编码器，扮演主程序把文本事件和文本响应编码为二进制帧。
+ * 与模组中的 KnotLinkBinaryCodec 相互独立实现，内置 ID 表与预置字典必须与协议保持一致。
+ */
+final class StandInBinaryEncoder {
+    static final String FEATURE = "bin1";
+    static final String DEFLATE_FEATURE = "deflate";
+    static final int COMPRESSION_THRESHOLD = 4096;
+
+    private static final int MAGIC = 0xB1;
+    private static final int VERSION = 1;
+    private static final int KIND_EVENT = 1;
+    private static final int KIND_REPLY = 2;
+    private static final int KIND_DEFLATED_REPLY = 3;
+
+    private static final byte[] DICTIONARY = ("_nether;_the_end;New World;.zip;.tar.gz;"
+            + "[Incremental][2025-01-01_00-00-00]world .7z;"
+            + "[Smart][2025-01-01_00-00-00]world [].7z;"
+            + "[Full][2025-01-01_00-00-00]world [].7z;"
+            + "[Smart][2025-;[Full][2025-;-00]world [").getBytes(StandardCharsets.UTF_8);
+
+    private static final List<String> EVENT_TYPES = List.of(
+            "handshake", "pre_hot_backup", "pre_hot_restore", "restore_finished", "restore_success",
+            "rejoin_world", "backup_started", "restore_started", "backup_success", "backup_failed",
+            "game_session_start", "game_session_end", "auto_backup_started", "we_snapshot_completed");
+    private static final List<String> KEYS = List.of(
+            "world", "file", "error", "status", "config", "version", "min_mod_version", "features",
+            "action", "comment");
+
+    private StandInBinaryEncoder() {}
+
+    /**
+     * 把 "event=x;k=v;..." 编码为二进制事件帧
+     */
+    static byte[] event(String text) {
+        String type = "";
+        ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        int count = 0;
+        for (String pair : text.split(";")) {
+            String[] keyValue = pair.split("=", 2);
+            if (keyValue.length != 2) {
+                continue;
+            }
+            String key = keyValue[0].trim();
+            if (key.equals("event")) {
+                type = keyValue[1].trim();
+                continue;
+            }
+            writeInterned(fields, key, KEYS);
+            writeString(fields, keyValue[1].trim());
+            count++;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(KIND_EVENT);
+        writeInterned(body, type, EVENT_TYPES);
+        writeVarint(body, count);
+        body.writeBytes(fields.toByteArray());
+        return frame(body);
+    }
+
+    /**
+     * 把 "OK:a;b" / "ERROR:code" 编码为二进制响应帧
+     */
+    static byte[] reply(String text) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(KIND_REPLY);
+        if (text.startsWith("OK:")) {
+            body.write(0);
+            List<String> entries = java.util.Arrays.stream(text.substring(3).split(";"))
+                    .filter(entry -> !entry.isEmpty())
+                    .toList();
+            writeVarint(body, entries.size());
+            for (String entry : entries) {
+                writeString(body, entry);
+            }
+        } else {
+            body.write(1);
+            writeString(body, text.startsWith("ERROR:") ? text.substring(6) : text);
+        }
+        return frame(body);
+    }
+
+    /**
+     * 把 "OK:a;b" 压缩为压缩响应帧（带预置字典的 zlib 数据）
+     */
+    static byte[] deflatedReply(String text) {
+        byte[] content = text.substring(3).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length / 4 + 16);
+        body.write(KIND_DEFLATED_REPLY);
+        writeVarint(body, content.length);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                body.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.end();
+        }
+        return frame(body);
+    }
+
+    private static byte[] frame(ByteArrayOutputStream body) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() + 7);
+        frame.write(MAGIC);
+        frame.write(VERSION);
+        writeVarint(frame, body.size());
+        frame.writeBytes(body.toByteArray());
+        return frame.toByteArray();
+    }
+
+    private static void writeInterned(ByteArrayOutputStream out, String value, List<String> table) {
+        int index = table.indexOf(value);
+        writeVarint(out, index + 1);
+        if (index < 0) {
+            writeString(out, value);
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
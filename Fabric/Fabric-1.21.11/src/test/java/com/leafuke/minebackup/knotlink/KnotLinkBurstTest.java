@@ -0,0 +1,127 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.leafuke.minebackup.standin.KnotLinkStandInServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 主程序连续广播事件时不带分隔符，多条事件会粘在一起到达。
+ * 通过替身服务器连续发送事件，检查客户端按原样逐条交付、没有合并或丢失。
+ */
+class KnotLinkBurstTest {
+    private static final String SUBSCRIPTION = "0x00000020-0x00000020";
+
+    @TempDir
+    Path socketDir;
+
+    private KnotLinkStandInServer server;
+    private TcpClient client;
+    private final List<String> received = new ArrayList<>();
+
+    @BeforeEach
+    void connect() throws Exception {
+        server = new KnotLinkStandInServer().start(socketDir);
+        client = new TcpClient();
+        client.setDataReceivedListener(data -> {
+            synchronized (received) {
+                received.add(data);
+                received.notifyAll();
+            }
+        });
+        assertTrue(client.connectToServer(new KnotLinkTransport.UnixDomain(socketDir), KnotLinkStandInServer.SUBSCRIBER_PORT));
+        client.sendData(SUBSCRIPTION);
+        assertTrue(server.awaitSubscribers(1, 5, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    void close() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void deliversEveryEventOfABurst() throws InterruptedException {
+        int count = 1000;
+        server.burst("event=backup_success;world=world;file=[Full][2025-01-01_00-00-00]world_{i}.7z", count, 0);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            expected.add("event=backup_success;world=world;file=[Full][2025-01-01_00-00-00]world_" + i + ".7z");
+        }
+        assertEquals(expected, await(count));
+    }
+
+    @Test
+    void splitsEventsGluedAfterAnyFieldValue() throws InterruptedException {
+        server.broadcast("event=backup_started;world=A");
+        server.broadcast("event=pre_hot_backup;world=A");
+        server.broadcast("event=backup_success;world=A;file=x.7z");
+        server.broadcast("event=backup_success;world=A;file=xx_0.7z");
+        server.broadcast("event=backup_failed;world=A;error=disk full");
+        assertEquals(List.of(
+                "event=backup_started;world=A",
+                "event=pre_hot_backup;world=A",
+                "event=backup_success;world=A;file=x.7z",
+                "event=backup_success;world=A;file=xx_0.7z",
+                "event=backup_failed;world=A;error=disk full"), await(5));
+    }
+
+    @Test
+    void splitsGluedEventsRegardlessOfReadBoundaries() {
+        String glued = "event=backup_started;world=Aevent=pre_hot_backup;world=Aevent=backup_success;world=A;file=x.7z";
+        List<String> expected = List.of(
+                "event=backup_started;world=A",
+                "event=pre_hot_backup;world=A",
+                "event=backup_success;world=A;file=x.7z");
+        byte[] bytes = glued.getBytes(StandardCharsets.UTF_8);
+        for (int split = 1; split < bytes.length; split++) {
+            KnotLinkFrameDecoder decoder = new KnotLinkFrameDecoder();
+            List<String> frames = new ArrayList<>();
+            decoder.decode(ByteBuffer.wrap(bytes, 0, split), frames::add);
+            decoder.decode(ByteBuffer.wrap(bytes, split, bytes.length - split), frames::add);
+            decoder.flush(frames::add);
+            assertEquals(expected, frames, "split at " + split);
+        }
+    }
+
+    @Test
+    void keepsEventTextInsideValues() {
+        KnotLinkFrameDecoder decoder = new KnotLinkFrameDecoder();
+        List<String> frames = new ArrayList<>();
+        decoder.decode(ByteBuffer.wrap("event=backup_success;file=prevent=1.7z;world=A".getBytes(StandardCharsets.UTF_8)), frames::add);
+        decoder.flush(frames::add);
+        assertEquals(List.of("event=backup_success;file=prevent=1.7z;world=A"), frames);
+    }
+
+    /**
+     * 等待收到 count 条事件；最后一条没有分隔符，要等客户端的静默刷新
+     */
+    private List<String> await(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        synchronized (received) {
+            while (received.size() < count) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                received.wait(remaining);
+            }
+        }
+        // 再等一会，多出来的帧说明有事件被拆开
+        Thread.sleep(100);
+        synchronized (received) {
+            return new ArrayList<>(received);
+        }
+    }
+}
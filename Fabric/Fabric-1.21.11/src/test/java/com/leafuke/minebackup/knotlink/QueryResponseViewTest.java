@@ -0,0 +1,59 @@
+package com.leafuke.minebackup.knotlink;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 批处理层把重复查询的同一个响应分给多个调用方，每个调用方关闭自己的视图不能打断其它调用方的遍历。
+ */
+class QueryResponseViewTest {
+    private static final int ENTRIES = 2000;
+
+    @Test
+    void closingOneViewKeepsOthersIterating() {
+        QueryResponse shared = deflatedList();
+        QueryResponse first = shared.view();
+        QueryResponse second = shared.view();
+
+        Iterator<String> reading = first.entries().iterator();
+        List<String> seen = new ArrayList<>();
+        for (int i = 0; i < ENTRIES / 2; i++) {
+            seen.add(reading.next());
+        }
+        try (second) {
+            second.entries().iterator().next();
+        }
+        reading.forEachRemaining(seen::add);
+
+        assertEquals(expected(), seen);
+    }
+
+    @Test
+    void closedViewCanBeIteratedAgain() {
+        QueryResponse view = deflatedList().view();
+        try (view) {
+            view.entries().iterator().next();
+        }
+        List<String> seen = new ArrayList<>();
+        view.entries().forEach(seen::add);
+        assertEquals(expected(), seen);
+    }
+
+    private static QueryResponse deflatedList() {
+        byte[] frame = KnotLinkBinaryCodec.encodeDeflatedReply(QueryResponse.of("OK:" + String.join(";", expected())));
+        return QueryResponse.wrap(frame, frame.length);
+    }
+
+    private static List<String> expected() {
+        List<String> entries = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            entries.add("[" + i + "]Backup_2026-10-17_12-00-00.7z");
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,55 @@
+package com.leafuke.minebackup.knotlink;
+
+import com.leafuke.minebackup.standin.KnotLinkStandInServer;
+import com.leafuke.minebackup.standin.QueryScript;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 现有主程序只发送没有长度前缀的文本响应，大的列表响应必须完整读取，不能只取第一段数据。
+ */
+class TextReplyTest {
+    private static final int ENTRIES = 5000;
+
+    @TempDir
+    Path socketDir;
+
+    private KnotLinkStandInServer server;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = new KnotLinkStandInServer(QueryScript.defaults().backupListReply("LIST_BACKUPS", ENTRIES)).start(socketDir);
+        KnotLinkTransports.configure(socketDir.toString());
+    }
+
+    @AfterEach
+    void stop() {
+        KnotLinkTransports.configure(null);
+        server.close();
+    }
+
+    @Test
+    void readsLargeTextReplyInFull() throws Exception {
+        assertEquals(QueryScript.backupListPayload(ENTRIES), list());
+        // 第二次查询不能读到上一条响应的残留数据
+        assertEquals(QueryScript.backupListPayload(ENTRIES), list());
+    }
+
+    @Test
+    void readsLargeTextReplyFromServerThatClosesAfterReplying() throws Exception {
+        server.setCloseAfterReply(true);
+        assertEquals(QueryScript.backupListPayload(ENTRIES), list());
+        assertEquals(QueryScript.backupListPayload(ENTRIES), list());
+    }
+
+    private static String list() throws Exception {
+        return OpenSocketQuerier.query("0x00000020", "0x00000010", "LIST_BACKUPS 0 0").get(10, TimeUnit.SECONDS);
+    }
+}